@@ -7,24 +7,26 @@ import edu.cwru.sepia.environment.model.state.State;
 import edu.cwru.sepia.environment.model.state.Unit;
 import edu.cwru.sepia.util.Direction;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class AstarAgent extends Agent {
 
     class MapLocation
     {
         public int x, y;
-        public float cost;
-        public MapLocation cameFrom;
 
-        public MapLocation(int x, int y, MapLocation cameFrom, float cost)
+        public MapLocation(int x, int y)
         {
             this.x = x;
             this.y = y;
-            this.cost = cost;
-            this.cameFrom = cameFrom;
         }
         @Override
 		public int hashCode() {
@@ -49,24 +51,224 @@ public class AstarAgent extends Agent {
 			return false;
 		return true;
 	}
-    	public boolean isAdjacentTo(MapLocation that){
-		if (that == null || equals(that)) return false;
-		return	Math.abs(x-that.x) <= 1 && Math.abs(y-that.y) <= 1;
-	}
     }
 
-    Stack<MapLocation> path;
+    /**
+     * The search used by findPath, selected by the first agent argument (e.g. "dstar_lite").
+     */
+    enum Planner {
+        // plan every path from scratch with GridSearch
+        ASTAR,
+        // GridSearch with Jump Point Search successors, same paths with fewer expansions
+        JPS,
+        // forward search from the footman and backward search from every cell next to the townhall
+        BIDIRECTIONAL,
+        // keep a D* Lite search tree and repair it when the enemy footman moves
+        DSTAR_LITE,
+        // search a precomputed cluster abstraction and refine one segment at a time
+        HPA,
+        // time-bounded A*: move along the best partial path each turn while the search continues
+        TBA,
+        // cooperative A* for the whole squad over a space-time reservation table (WHCA*)
+        WHCA,
+        // follow a distance field from the townhall built once per episode, patched around the enemy
+        FLOW
+    }
+
+    /**
+     * The estimate used by the GridSearch-based planners, selected by the third agent argument.
+     */
+    enum Heuristic {
+        CHEBYSHEV,
+        // inadmissible with unit diagonal cost, trades path length for fewer expansions
+        OCTILE,
+        // landmark bounds over the tree layout, built once in initialStep
+        ALT
+    }
+
+    /**
+     * Where replans run, selected by the fifth agent argument.
+     */
+    enum Scheduling {
+        // middleStep runs the search itself and waits for it
+        INLINE,
+        // middleStep hands the search to a planner thread and keeps executing meanwhile
+        BACKGROUND
+    }
+
+    /**
+     * A plan made on the planner thread, with the positions it was made for.
+     */
+    private static final class PlannedPath {
+        final MapLocation start;
+        final MapLocation enemy;
+        // null if the search failed
+        final GridPath path;
+        final long planNanos;
+        // the search's counters, recorded once middleStep knows whether the plan is used
+        final SearchStats stats;
+
+        PlannedPath(MapLocation start, MapLocation enemy, GridPath path, long planNanos, SearchStats stats) {
+            this.start = start;
+            this.enemy = enemy;
+            this.path = path;
+            this.planNanos = planNanos;
+            this.stats = stats;
+        }
+    }
+
+    // width and height in cells of an HPA* cluster
+    private static final int HPA_CLUSTER_SIZE = 16;
+    // number of paths kept by the path cache
+    private static final int PATH_CACHE_SIZE = 256;
+    // number of landmarks placed for the ALT heuristic
+    private static final int LANDMARK_COUNT = 4;
+    // recorded as the search counters of a plan served from the path cache
+    private static final SearchStats NO_SEARCH = new SearchStats();
+    // per-turn search budget of the TBA planner when none is given
+    private static final double DEFAULT_TURN_BUDGET_MS = 2.0;
+    // turns the WHCA planner looks ahead when none is given
+    private static final int DEFAULT_WHCA_WINDOW = 16;
+
+    GridPath path;
     int footmanID, townhallID, enemyFootmanID;
     MapLocation nextLoc;
 
+    // every footman of this player; footmanID is the first of them
+    List<Integer> footmanIDs;
+    // in squad mode (more than one footman, or the WHCA planner) each footman is driven from
+    // these instead of path and nextLoc; null otherwise
+    Map<Integer, GridPath> paths;
+    Map<Integer, MapLocation> nextLocs;
+    // plans all footmen at once on the common ForkJoinPool, for squads not planned with WHCA
+    private BatchPlanner batchPlanner;
+    // WHCA* planner and its window, with the turns since the squad was last planned
+    private CooperativePlanner cooperative;
+    private final int cooperativeWindow;
+    private int turnsSincePlan;
+    // times a footman's next step was a cell another footman stood on
+    private int footmanConflicts;
+
+    // trees, built once in initialStep; the enemy footman is applied on top of this per search
+    private ObstacleMap obstacles;
+    // reusable A* buffers, created on the first search
+    private GridSearch gridSearch;
+    // incremental search tree kept between replans, created on the first plan
+    private DStarLite dStarLite;
+    // cluster abstraction over the trees, built in initialStep when the HPA planner is selected
+    private HierarchicalPlanner hierarchy;
+    // landmark distance tables, built in initialStep when the ALT heuristic is selected
+    private GridHeuristic.Landmarks landmarks;
+    // distances to the townhall, built in initialStep when the FLOW planner is selected
+    private FlowField flowField;
+    private final Planner planner;
+    private final Heuristic heuristic;
+    // how long the TBA planner may search per turn
+    private final long turnBudgetNanos;
+    // how many enemy turns the astar and tba planners look ahead, 0 for none
+    private final int enemyLookahead;
+    // enemy reachability over that lookahead, created with the search buffers
+    private EnemyForecast forecast;
+    // plans made because the enemy footman blocked the next step
+    private int replans;
+
+    // single planner thread for BACKGROUND scheduling, null when planning inline
+    private final ExecutorService planExecutor;
+    // written by the planner thread when a background plan is done, taken by middleStep
+    private final AtomicReference<PlannedPath> publishedPlan = new AtomicReference<PlannedPath>();
+    // set while a background plan is running; the planner state is only touched by that plan
+    // until it is published, so middleStep leaves the planners alone while this is set
+    private boolean planInFlight;
+    private int stalePlans;
+
+    // per-findPath histograms, and the counters of whichever search ran last
+    private final PlanMetrics planMetrics = new PlanMetrics();
+    private final String metricsFile;
+    private SearchStats lastStats;
+
+    // complete plans from AstarSearch, kept across episodes and saved with the player data
+    private final PathCache pathCache = new PathCache(PATH_CACHE_SIZE);
+
     private long totalPlanTime = 0; // nsecs
     private long totalExecutionTime = 0; //nsecs
 
     public AstarAgent(int playernum)
+    {
+        this(playernum, new String[0]);
+    }
+
+    /**
+     * All arguments are optional and positional:
+     * args[0] the Planner (default astar),
+     * args[1] a file the planning metrics are written to at the end of the episode, as JSON if it
+     * ends in .json and as CSV otherwise, or - for none (the default),
+     * args[2] the Heuristic (default chebyshev),
+     * args[3] the per-turn search budget of the TBA planner in milliseconds (default 2),
+     * args[4] the Scheduling of replans (default inline),
+     * args[5] how many enemy turns the astar and tba planners look ahead to route around cells the
+     * enemy footman can block, or 0 to only avoid its current cell (the default),
+     * args[6] the number of turns the WHCA planner plans ahead (default 16).
+     */
+    public AstarAgent(int playernum, String[] args)
     {
         super(playernum);
 
-        System.out.println("Constructed AstarAgent");
+        planner = parseOption(args, 0, Planner.class, Planner.ASTAR);
+        metricsFile = args.length >= 2 && !args[1].equals("-") ? args[1] : null;
+        heuristic = parseOption(args, 2, Heuristic.class, Heuristic.CHEBYSHEV);
+        turnBudgetNanos = (long) (parseNumber(args, 3, DEFAULT_TURN_BUDGET_MS, Double.MIN_VALUE, "turn budget in milliseconds") * 1e6);
+        if (parseOption(args, 4, Scheduling.class, Scheduling.INLINE) == Scheduling.BACKGROUND) {
+            planExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "AstarAgent-planner");
+                // never keep the JVM alive for a plan nobody will use
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            planExecutor = null;
+        }
+        enemyLookahead = (int) parseNumber(args, 5, 0, 0, "enemy lookahead in turns");
+        cooperativeWindow = (int) parseNumber(args, 6, DEFAULT_WHCA_WINDOW, 1, "WHCA window in turns");
+        if (enemyLookahead > 0 && planner != Planner.ASTAR && planner != Planner.TBA) {
+            System.err.println("Enemy lookahead is only supported by the ASTAR and TBA planners");
+            System.exit(1);
+        }
+
+        System.out.println("Constructed AstarAgent using " + planner + " with " + heuristic);
+    }
+
+    private static <E extends Enum<E>> E parseOption(String[] args, int index, Class<E> type, E fallback)
+    {
+        if(args.length <= index)
+        {
+            return fallback;
+        }
+        try {
+            return Enum.valueOf(type, args[index].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown " + type.getSimpleName() + " " + args[index] + ", expected one of " + Arrays.toString(type.getEnumConstants()));
+            System.exit(1);
+            return fallback;
+        }
+    }
+
+    private static double parseNumber(String[] args, int index, double fallback, double min, String description)
+    {
+        if(args.length <= index)
+        {
+            return fallback;
+        }
+        try {
+            double value = Double.parseDouble(args[index]);
+            if(value >= min) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        System.err.println("Invalid " + description + " " + args[index] + ", expected at least " + min);
+        System.exit(1);
+        return fallback;
     }
 
     @Override
@@ -80,15 +282,24 @@ public class AstarAgent extends Agent {
             return null;
         }
 
-        footmanID = unitIDs.get(0);
+        footmanIDs = new ArrayList<Integer>();
+        for(Integer unitID : unitIDs)
+        {
+            // double check that this is a footman
+            if(newstate.getUnit(unitID).getTemplateView().getName().equals("Footman"))
+            {
+                footmanIDs.add(unitID);
+            }
+        }
 
-        // double check that this is a footman
-        if(!newstate.getUnit(footmanID).getTemplateView().getName().equals("Footman"))
+        if(footmanIDs.isEmpty())
         {
             System.err.println("Footman unit not found");
             return null;
         }
 
+        footmanID = footmanIDs.get(0);
+
         // find the enemy playernum
         Integer[] playerNums = newstate.getPlayerNumbers();
         int enemyPlayerNum = -1;
@@ -141,6 +352,40 @@ public class AstarAgent extends Agent {
         }
 
         long startTime = System.nanoTime();
+        obstacles = buildObstacleMap(newstate);
+        if (heuristic == Heuristic.ALT) {
+            landmarks = new GridHeuristic.Landmarks(obstacles, LANDMARK_COUNT);
+        }
+        if (planner == Planner.FLOW) {
+            Unit.UnitView townhallUnit = newstate.getUnit(townhallID);
+            flowField = new FlowField(obstacles, townhallUnit.getYPosition() * obstacles.width + townhallUnit.getXPosition());
+        }
+        if (planner == Planner.WHCA) {
+            System.out.println("Planning " + footmanIDs.size() + " footmen cooperatively over " + cooperativeWindow + " turns");
+            cooperative = new CooperativePlanner(newstate.getXExtent(), newstate.getYExtent(), cooperativeWindow);
+            paths = planCooperatively(newstate);
+            nextLocs = new HashMap<Integer, MapLocation>();
+            totalPlanTime += System.nanoTime() - startTime;
+            return middleStep(newstate, statehistory);
+        }
+        if (footmanIDs.size() > 1) {
+            // D* Lite and HPA* keep state for a single footman, so a squad is planned with A* instead
+            Planner squadPlanner = planner == Planner.DSTAR_LITE || planner == Planner.HPA ? Planner.ASTAR : planner;
+            System.out.println("Planning " + footmanIDs.size() + " footmen in parallel with " + squadPlanner);
+            if (flowField == null) {
+                final int xExtent = newstate.getXExtent(), yExtent = newstate.getYExtent();
+                batchPlanner = new BatchPlanner(ForkJoinPool.commonPool(), () -> newGridSearch(xExtent, yExtent));
+            }
+            paths = findPaths(newstate, footmanIDs);
+            nextLocs = new HashMap<Integer, MapLocation>();
+            totalPlanTime += System.nanoTime() - startTime;
+            return middleStep(newstate, statehistory);
+        }
+        if (planner == Planner.HPA) {
+            Unit.UnitView townhallUnit = newstate.getUnit(townhallID);
+            hierarchy = new HierarchicalPlanner(obstacles,
+                    townhallUnit.getYPosition() * obstacles.width + townhallUnit.getXPosition(), HPA_CLUSTER_SIZE);
+        }
         path = findPath(newstate);
         totalPlanTime += System.nanoTime() - startTime;
 
@@ -149,12 +394,30 @@ public class AstarAgent extends Agent {
 
     @Override
     public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
+        if(paths != null) {
+            return squadStep(newstate, statehistory);
+        }
+
         long startTime = System.nanoTime();
         long planTime = 0;
 
         Map<Integer, Action> actions = new HashMap<Integer, Action>();
 
+        if(planExecutor != null) {
+            takePublishedPlan(newstate);
+        }
+
         if(shouldReplanPath(newstate, statehistory, path)) {
+            if(planExecutor != null) {
+                // the next step is blocked, so wait in place until the planner thread has a new path
+                if(!planInFlight) {
+                    replans++;
+                    requestPlan(newstate);
+                }
+                totalExecutionTime += System.nanoTime() - startTime;
+                return actions;
+            }
+            replans++;
             long planStartTime = System.nanoTime();
             path = findPath(newstate);
             planTime = System.nanoTime() - planStartTime;
@@ -166,43 +429,122 @@ public class AstarAgent extends Agent {
         int footmanX = footmanUnit.getXPosition();
         int footmanY = footmanUnit.getYPosition();
 
-        if(!path.empty() && (nextLoc == null || (footmanX == nextLoc.x && footmanY == nextLoc.y))) {
+        // HPA* plans only refine the segment to the next waypoint; refine the following one on arrival
+        if(!planInFlight && path.isEmpty() && hierarchy != null && hierarchy.hasNextSegment()
+                && (nextLoc == null || (footmanX == nextLoc.x && footmanY == nextLoc.y))) {
+            long planStartTime = System.nanoTime();
+            int enemy = -1;
+            if(enemyFootmanID != -1) {
+                Unit.UnitView enemyFootmanUnit = newstate.getUnit(enemyFootmanID);
+                enemy = enemyFootmanUnit.getYPosition() * obstacles.width + enemyFootmanUnit.getXPosition();
+            }
+            hierarchy.stats.reset();
+            int[] segment = hierarchy.nextSegment(footmanY * obstacles.width + footmanX, enemy);
+            if(segment != null) {
+                path = toPath(segment, obstacles.width);
+                planMetrics.record(System.nanoTime() - planStartTime, hierarchy.stats, path.remaining());
+            } else {
+                // the replan is recorded by findPath
+                path = findPath(newstate);
+            }
+            long segmentTime = System.nanoTime() - planStartTime;
+            planTime += segmentTime;
+            totalPlanTime += segmentTime;
+        }
+
+        // a TBA plan is only the best partial path so far; search for another slice between steps
+        if(!planInFlight && planner == Planner.TBA && (nextLoc == null || (footmanX == nextLoc.x && footmanY == nextLoc.y))) {
+            TimeBoundedSearch search = (TimeBoundedSearch) gridSearch;
+            int footmanCell = footmanY * obstacles.width + footmanX;
+            if(!search.isComplete() && search.contains(footmanCell)) {
+                long planStartTime = System.nanoTime();
+                // the slice's own counters, not the whole search's so far
+                search.stats.reset();
+                path = toPath(search.step(turnBudgetNanos, footmanCell), obstacles.width);
+                long sliceTime = System.nanoTime() - planStartTime;
+                planMetrics.record(sliceTime, search.stats, path.remaining());
+                planTime += sliceTime;
+                totalPlanTime += sliceTime;
+            }
+        }
 
-            // stat moving to the next step in the path
-            nextLoc = path.pop();
+        Unit.UnitView townhallUnit = newstate.getUnit(townhallID);
 
-            System.out.println("Moving to (" + nextLoc.x + ", " + nextLoc.y + ")");
+        // if townhall was destroyed on the last turn
+        if(townhallUnit == null) {
+            terminalStep(newstate, statehistory);
+            return actions;
         }
 
-        if(nextLoc != null && (footmanX != nextLoc.x || footmanY != nextLoc.y))
-        {
-            int xDiff = nextLoc.x - footmanX;
-            int yDiff = nextLoc.y - footmanY;
+        nextLoc = followPath(footmanUnit, townhallUnit, path, nextLoc, actions);
 
-            // figure out the direction the footman needs to move in
-            Direction nextDirection = getNextDirection(xDiff, yDiff);
+        totalExecutionTime += System.nanoTime() - startTime - planTime;
+        return actions;
+    }
 
-            actions.put(footmanID, Action.createPrimitiveMove(footmanID, nextDirection));
-        } else {
-            Unit.UnitView townhallUnit = newstate.getUnit(townhallID);
+    /**
+     * middleStep in squad mode. Every footman whose next step is blocked is replanned in one
+     * batch, or with WHCA the whole squad is replanned together, then every footman takes its step.
+     */
+    private Map<Integer, Action> squadStep(State.StateView newstate, History.HistoryView statehistory) {
+        long startTime = System.nanoTime();
+        long planTime = 0;
 
-            // if townhall was destroyed on the last turn
-            if(townhallUnit == null) {
-                terminalStep(newstate, statehistory);
-                return actions;
+        Map<Integer, Action> actions = new HashMap<Integer, Action>();
+
+        Unit.UnitView townhallUnit = newstate.getUnit(townhallID);
+
+        // if townhall was destroyed on the last turn
+        if(townhallUnit == null) {
+            terminalStep(newstate, statehistory);
+            return actions;
+        }
+
+        // cells the footmen stand on at the start of the turn
+        Set<MapLocation> occupied = new HashSet<MapLocation>();
+        for(Integer unitID : footmanIDs) {
+            Unit.UnitView footmanUnit = newstate.getUnit(unitID);
+            if(footmanUnit != null) {
+                occupied.add(new MapLocation(footmanUnit.getXPosition(), footmanUnit.getYPosition()));
             }
+        }
 
-            if(Math.abs(footmanX - townhallUnit.getXPosition()) > 1 ||
-                    Math.abs(footmanY - townhallUnit.getYPosition()) > 1)
-            {
-                System.err.println("Invalid plan. Cannot attack townhall");
-                totalExecutionTime += System.nanoTime() - startTime - planTime;
-                return actions;
+        List<Integer> blocked = new ArrayList<Integer>();
+        for(Integer unitID : footmanIDs) {
+            if(newstate.getUnit(unitID) != null && shouldReplanPath(newstate, statehistory, paths.get(unitID))) {
+                blocked.add(unitID);
             }
-            else {
-                System.out.println("Attacking TownHall");
-                // if no more movements in the planned path then attack
-                actions.put(footmanID, Action.createPrimitiveAttack(footmanID, townhallID));
+        }
+        if(cooperative != null) {
+            // WHCA* plans are only valid together, so the whole squad is replanned at once: when the
+            // enemy blocks a step, when a footman runs out of steps early, or halfway through the window
+            if(!blocked.isEmpty() || ++turnsSincePlan >= Math.max(1, cooperativeWindow / 2)
+                    || squadNeedsSteps(newstate, townhallUnit)) {
+                replans++;
+                long planStartTime = System.nanoTime();
+                paths = planCooperatively(newstate);
+                nextLocs.clear();
+                planTime = System.nanoTime() - planStartTime;
+                totalPlanTime += planTime;
+            }
+        } else if(!blocked.isEmpty()) {
+            replans += blocked.size();
+            long planStartTime = System.nanoTime();
+            paths.putAll(findPaths(newstate, blocked));
+            planTime = System.nanoTime() - planStartTime;
+            totalPlanTime += planTime;
+        }
+
+        for(Integer unitID : footmanIDs) {
+            Unit.UnitView footmanUnit = newstate.getUnit(unitID);
+            // footmen killed by the enemy are no longer in the state
+            if(footmanUnit == null) {
+                continue;
+            }
+            MapLocation next = followPath(footmanUnit, townhallUnit, paths.get(unitID), nextLocs.get(unitID), actions);
+            nextLocs.put(unitID, next);
+            if(actions.get(unitID) != null && next != null && occupied.contains(next)) {
+                footmanConflicts++;
             }
         }
 
@@ -210,22 +552,105 @@ public class AstarAgent extends Agent {
         return actions;
     }
 
+    /**
+     * Moves a footman one step along its path: once it has reached next, the following step is
+     * popped, and when the path is used up it attacks the townhall.
+     *
+     * @param next the step the footman was moving to, or null before its first step
+     * @return the step the footman is moving to now
+     */
+    private MapLocation followPath(Unit.UnitView footmanUnit, Unit.UnitView townhallUnit, GridPath path, MapLocation next, Map<Integer, Action> actions) {
+        int unitID = footmanUnit.getID();
+        int footmanX = footmanUnit.getXPosition();
+        int footmanY = footmanUnit.getYPosition();
+
+        if(!path.isEmpty() && (next == null || (footmanX == next.x && footmanY == next.y))) {
+
+            // stat moving to the next step in the path
+            int cell = path.pop();
+            next = new MapLocation(path.x(cell), path.y(cell));
+
+            System.out.println("Moving to (" + next.x + ", " + next.y + ")");
+        }
+
+        if(next != null && (footmanX != next.x || footmanY != next.y))
+        {
+            int xDiff = next.x - footmanX;
+            int yDiff = next.y - footmanY;
+
+            // figure out the direction the footman needs to move in
+            Direction nextDirection = getNextDirection(xDiff, yDiff);
+
+            actions.put(unitID, Action.createPrimitiveMove(unitID, nextDirection));
+        } else if(!path.isEmpty()) {
+            // the step just taken is a wait in place, as planned by WHCA*
+        } else if(Math.abs(footmanX - townhallUnit.getXPosition()) > 1 ||
+                Math.abs(footmanY - townhallUnit.getYPosition()) > 1)
+        {
+            System.err.println("Invalid plan. Cannot attack townhall");
+        }
+        else {
+            System.out.println("Attacking TownHall");
+            // if no more movements in the planned path then attack
+            actions.put(unitID, Action.createPrimitiveAttack(unitID, townhallID));
+        }
+        return next;
+    }
+
     @Override
     public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
+        if(planExecutor != null) {
+            // let a running plan finish so it does not record metrics while they are printed
+            planExecutor.shutdown();
+            try {
+                planExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
         System.out.println("Total turns: " + newstate.getTurnNumber());
         System.out.println("Total planning time: " + totalPlanTime/1e9);
         System.out.println("Total execution time: " + totalExecutionTime/1e9);
         System.out.println("Total time: " + (totalExecutionTime + totalPlanTime)/1e9);
+        System.out.println(planMetrics.latencySummary());
+        System.out.println("Path cache hits: " + pathCache.getHits() + ", misses: " + pathCache.getMisses());
+        System.out.println("Replans: " + replans);
+        if(paths != null) {
+            System.out.println("Footman conflicts: " + footmanConflicts);
+        }
+        if(cooperative != null) {
+            System.out.println("Reservation conflicts: " + cooperative.getConflicts());
+        }
+        if(planExecutor != null) {
+            System.out.println("Stale background plans discarded: " + stalePlans);
+        }
+
+        if(metricsFile != null) {
+            try {
+                planMetrics.write(metricsFile);
+            } catch (IOException e) {
+                System.err.println("Failed to write planning metrics to " + metricsFile + ": " + e.getMessage());
+            }
+        }
     }
 
     @Override
     public void savePlayerData(OutputStream os) {
-
+        try {
+            pathCache.save(os);
+        } catch (IOException e) {
+            System.err.println("Failed to save the path cache: " + e.getMessage());
+        }
     }
 
     @Override
     public void loadPlayerData(InputStream is) {
-
+        try {
+            pathCache.load(is);
+        } catch (IOException e) {
+            System.err.println("Failed to load the path cache: " + e.getMessage());
+        }
     }
 
     /**
@@ -246,16 +671,16 @@ public class AstarAgent extends Agent {
      * @param currentPath
      * @return
      */
-    private boolean shouldReplanPath(State.StateView state, History.HistoryView history, Stack<MapLocation> currentPath)
+    private boolean shouldReplanPath(State.StateView state, History.HistoryView history, GridPath currentPath)
     {
 	// if there is no enemy or path is empty --> no need to replan the path
         if (currentPath.isEmpty() || enemyFootmanID == -1 ) {
 	  return false;
 	}
-	MapLocation nextStep = currentPath.peek();	
+	int nextStep = currentPath.peek();	
 	// if the the enemy block unit --> have to replan the path 
-        if (nextStep != null && nextStep.x == state.getUnit(enemyFootmanID).getXPosition() 
-	   && nextStep.y == state.getUnit(enemyFootmanID).getYPosition()) {
+        if (currentPath.x(nextStep) == state.getUnit(enemyFootmanID).getXPosition() 
+	   && currentPath.y(nextStep) == state.getUnit(enemyFootmanID).getYPosition()) {
             return true;
         }
 	//otherwise no need
@@ -269,32 +694,235 @@ public class AstarAgent extends Agent {
      * @param state
      * @return
      */
-    private Stack<MapLocation> findPath(State.StateView state)
+    private GridPath findPath(State.StateView state)
     {
         Unit.UnitView townhallUnit = state.getUnit(townhallID);
         Unit.UnitView footmanUnit = state.getUnit(footmanID);
 
-        MapLocation startLoc = new MapLocation(footmanUnit.getXPosition(), footmanUnit.getYPosition(), null, 0);
+        MapLocation startLoc = new MapLocation(footmanUnit.getXPosition(), footmanUnit.getYPosition());
 
-        MapLocation goalLoc = new MapLocation(townhallUnit.getXPosition(), townhallUnit.getYPosition(), null, 0);
+        MapLocation goalLoc = new MapLocation(townhallUnit.getXPosition(), townhallUnit.getYPosition());
 
-        MapLocation footmanLoc = null;
-        if(enemyFootmanID != -1) {
-            Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
-            footmanLoc = new MapLocation(enemyFootmanUnit.getXPosition(), enemyFootmanUnit.getYPosition(), null, 0);
+        MapLocation footmanLoc = enemyLocation(state);
+
+        return findPath(startLoc, goalLoc, state.getXExtent(), state.getYExtent(), footmanLoc);
+    }
+
+    /**
+     * Runs the selected planner on positions already read from the state and records the plan.
+     */
+    private GridPath findPath(MapLocation startLoc, MapLocation goalLoc, int xExtent, int yExtent, MapLocation footmanLoc)
+    {
+        long startTime = System.nanoTime();
+        GridPath result = planPath(startLoc, goalLoc, xExtent, yExtent, footmanLoc);
+        planMetrics.record(System.nanoTime() - startTime, lastStats, result.remaining());
+        return result;
+    }
+
+    /**
+     * Runs the selected planner without recording it, so it can also be called from the planner
+     * thread, which must not read the StateView. lastStats holds the search's counters after it.
+     */
+    private GridPath planPath(MapLocation startLoc, MapLocation goalLoc, int xExtent, int yExtent, MapLocation footmanLoc)
+    {
+        GridPath result;
+        if (planner == Planner.HPA) {
+            result = HierarchicalSearch(startLoc, goalLoc, xExtent, yExtent, footmanLoc, obstacles);
+        } else if (planner == Planner.TBA) {
+            result = TimeBoundedSearch(startLoc, goalLoc, xExtent, yExtent, footmanLoc, obstacles);
+        } else if (planner == Planner.DSTAR_LITE) {
+            result = DStarLiteSearch(startLoc, goalLoc, xExtent, yExtent, footmanLoc, obstacles);
+        } else if (planner == Planner.FLOW) {
+            result = FlowFieldSearch(startLoc, goalLoc, xExtent, yExtent, footmanLoc, obstacles);
+        } else {
+            result = AstarSearch(startLoc, goalLoc, xExtent, yExtent, footmanLoc, obstacles);
         }
+        return result;
+    }
 
-        // get resource locations
-        List<Integer> resourceIDs = state.getAllResourceIds();
-        Set<MapLocation> resourceLocations = new HashSet<MapLocation>();
-        for(Integer resourceID : resourceIDs)
-        {
-            ResourceNode.ResourceView resource = state.getResourceNode(resourceID);
+    /**
+     * Plans paths to the townhall for several footmen at once, concurrently on the batch planner,
+     * or by walking the flow field when there is one. Each search is recorded in the planning
+     * metrics like a findPath call.
+     *
+     * @param unitIDs footmen to plan for
+     * @return each footman's path, with the first move on top
+     */
+    Map<Integer, GridPath> findPaths(State.StateView state, List<Integer> unitIDs)
+    {
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+        int xExtent = state.getXExtent();
+        int goalCell = townhallUnit.getYPosition() * xExtent + townhallUnit.getXPosition();
+        MapLocation footmanLoc = enemyLocation(state);
+        int enemy = footmanLoc == null ? -1 : footmanLoc.y * xExtent + footmanLoc.x;
 
-            resourceLocations.add(new MapLocation(resource.getXPosition(), resource.getYPosition(), null, 0));
+        List<BatchPlanner.Request> requests = new ArrayList<BatchPlanner.Request>(unitIDs.size());
+        for(Integer unitID : unitIDs) {
+            Unit.UnitView unit = state.getUnit(unitID);
+            requests.add(new BatchPlanner.Request(unitID, unit.getYPosition() * xExtent + unit.getXPosition(), goalCell));
         }
+        if(flowField != null) {
+            // a walk down the field is too cheap to be worth a task
+            flowField.setEnemy(enemy);
+            for(BatchPlanner.Request request : requests) {
+                long startTime = System.nanoTime();
+                request.cells = flowField.path(request.start);
+                request.nanos = System.nanoTime() - startTime;
+                request.stats = flowField.stats;
+            }
+        } else {
+            batchPlanner.plan(requests, obstacles, enemy);
+        }
+
+        Map<Integer, GridPath> result = new HashMap<Integer, GridPath>();
+        for(BatchPlanner.Request request : requests) {
+            GridPath unitPath = toPath(request.cells, xExtent);
+            planMetrics.record(request.nanos, request.stats, unitPath.remaining());
+            result.put(request.unitId, unitPath);
+        }
+        return result;
+    }
+
+    /**
+     * Plans the whole squad with WHCA*. The priority order rotates every round so no footman is
+     * always the one that has to give way. The round is recorded in the planning metrics as a
+     * single plan whose length is the total number of steps.
+     *
+     * @return each living footman's path, with the first move on top
+     */
+    private Map<Integer, GridPath> planCooperatively(State.StateView state)
+    {
+        int xExtent = state.getXExtent();
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+        MapLocation footmanLoc = enemyLocation(state);
+        int enemy = footmanLoc == null ? -1 : footmanLoc.y * xExtent + footmanLoc.x;
+
+        List<Integer> order = new ArrayList<Integer>();
+        for(Integer unitID : footmanIDs) {
+            if(state.getUnit(unitID) != null) {
+                order.add(unitID);
+            }
+        }
+        if(!order.isEmpty()) {
+            Collections.rotate(order, -(replans % order.size()));
+        }
+        int[] starts = new int[order.size()];
+        for(int i = 0; i < starts.length; i++) {
+            Unit.UnitView unit = state.getUnit(order.get(i));
+            starts[i] = unit.getYPosition() * xExtent + unit.getXPosition();
+        }
+
+        long startTime = System.nanoTime();
+        int[][] cells = cooperative.plan(starts, townhallUnit.getYPosition() * xExtent + townhallUnit.getXPosition(), obstacles, enemy);
+        long nanos = System.nanoTime() - startTime;
+
+        Map<Integer, GridPath> result = new HashMap<Integer, GridPath>();
+        int steps = 0;
+        for(int i = 0; i < starts.length; i++) {
+            GridPath unitPath = toPath(cells[i], xExtent);
+            steps += unitPath.remaining();
+            result.put(order.get(i), unitPath);
+        }
+        turnsSincePlan = 0;
+        planMetrics.record(nanos, cooperative.stats, steps);
+        return result;
+    }
+
+    /**
+     * @return true if a living footman has used up its WHCA* path without reaching the townhall
+     */
+    private boolean squadNeedsSteps(State.StateView state, Unit.UnitView townhallUnit)
+    {
+        for(Integer unitID : footmanIDs) {
+            Unit.UnitView unit = state.getUnit(unitID);
+            MapLocation next = nextLocs.get(unitID);
+            if(unit == null || !paths.get(unitID).isEmpty()
+                    || (next != null && (next.x != unit.getXPosition() || next.y != unit.getYPosition()))) {
+                continue;
+            }
+            if(Math.abs(unit.getXPosition() - townhallUnit.getXPosition()) > 1
+                    || Math.abs(unit.getYPosition() - townhallUnit.getYPosition()) > 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the enemy footman's position, or null if there is no enemy footman
+     */
+    private MapLocation enemyLocation(State.StateView state)
+    {
+        if(enemyFootmanID == -1) {
+            return null;
+        }
+        Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
+        return new MapLocation(enemyFootmanUnit.getXPosition(), enemyFootmanUnit.getYPosition());
+    }
+
+    /**
+     * Snapshots the positions a plan needs and hands the search to the planner thread. The
+     * result comes back through publishedPlan.
+     */
+    private void requestPlan(State.StateView state)
+    {
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+        Unit.UnitView footmanUnit = state.getUnit(footmanID);
+        final MapLocation startLoc = new MapLocation(footmanUnit.getXPosition(), footmanUnit.getYPosition());
+        final MapLocation goalLoc = new MapLocation(townhallUnit.getXPosition(), townhallUnit.getYPosition());
+        final MapLocation footmanLoc = enemyLocation(state);
+        final int xExtent = state.getXExtent(), yExtent = state.getYExtent();
 
-        return AstarSearch(startLoc, goalLoc, state.getXExtent(), state.getYExtent(), footmanLoc, resourceLocations);
+        planInFlight = true;
+        planExecutor.execute(() -> {
+            long planStartTime = System.nanoTime();
+            GridPath result = null;
+            SearchStats stats = null;
+            try {
+                result = planPath(startLoc, goalLoc, xExtent, yExtent, footmanLoc);
+                stats = lastStats.copy();
+            } catch (RuntimeException e) {
+                System.err.println("Background plan failed: " + e);
+            }
+            publishedPlan.set(new PlannedPath(startLoc, footmanLoc, result, System.nanoTime() - planStartTime, stats));
+        });
+    }
+
+    /**
+     * Adopts the plan published by the planner thread, if there is one. The plan is stale and
+     * discarded if the footman has moved since it was requested, or if the enemy footman has
+     * moved and now stands on it. An enemy that moved somewhere off the plan is not a reason to
+     * discard it: the enemy moves on most turns, so requiring its exact position would throw
+     * away nearly every plan. After a discard, shouldReplanPath asks for a new plan if the
+     * current path is still blocked. A plan is recorded in the metrics when it is adopted, and
+     * counted as a discard otherwise.
+     */
+    private void takePublishedPlan(State.StateView state)
+    {
+        PlannedPath ready = publishedPlan.getAndSet(null);
+        if(ready == null) {
+            return;
+        }
+        planInFlight = false;
+        totalPlanTime += ready.planNanos;
+        if(ready.path == null) {
+            return;
+        }
+        Unit.UnitView footmanUnit = state.getUnit(footmanID);
+        MapLocation enemyLoc = enemyLocation(state);
+        boolean enemyMoved = enemyLoc == null ? ready.enemy != null : !enemyLoc.equals(ready.enemy);
+        if((enemyMoved && enemyLoc != null && ready.path.contains(enemyLoc.y * ready.path.width + enemyLoc.x))
+                || ready.start.x != footmanUnit.getXPosition() || ready.start.y != footmanUnit.getYPosition()) {
+            stalePlans++;
+            planMetrics.recordDiscard();
+            // a TBA search rooted at the stale start must not be sliced back into the path
+            if(planner == Planner.TBA) {
+                ((TimeBoundedSearch) gridSearch).cancel();
+            }
+            return;
+        }
+        planMetrics.record(ready.planNanos, ready.stats, ready.path.remaining());
+        path = ready.path;
     }
     /**
      * This is the method you will implement for the assignment. Your implementation
@@ -303,11 +931,11 @@ public class AstarAgent extends Agent {
      *
      * Therefore your you need to find some possible adjacent steps which are in range 
      * and are not trees or the enemy footman.
-     * Hint: Set<MapLocation> resourceLocations contains the locations of trees
+     * Hint: ObstacleMap obstacles contains the locations of trees
      *
-     * You will return a Stack of positions with the top of the stack being the first space to move to
-     * and the bottom of the stack being the last space to move to. If there is no path to the townhall
-     * then return null from the method and the agent will print a message and do nothing.
+     * You will return a GridPath of positions with the front of the path being the first space to move to
+     * and the end of the path being the last space to move to. If there is no path to the townhall
+     * then return an empty path from the method and the agent will print a message and do nothing.
      * The code to execute the plan is provided for you in the middleStep method.
      *
      * As an example consider the following simple map
@@ -326,7 +954,7 @@ public class AstarAgent extends Agent {
      * yExtent would be 3 for this map with valid Y coordinates in the range of [0, 2]
      * y=0 is the top most row and y=2 is the bottom most row
      *
-     * resourceLocations would be {(0,1), (1,1), (2,1), (4,1)}
+     * obstacles would have the cells {(0,1), (1,1), (2,1), (4,1)} set
      *
      * The path would be
      *
@@ -336,83 +964,182 @@ public class AstarAgent extends Agent {
      * (2,2)
      * (1,2)
      *
-     * Notice how the initial footman position and the townhall position are not included in the path stack
+     * Notice how the initial footman position and the townhall position are not included in the path
      *
      * @param start Starting position of the footman
      * @param goal MapLocation of the townhall
      * @param xExtent Width of the map
      * @param yExtent Height of the map
-     * @param resourceLocations Set of positions occupied by resources
-     * @return Stack of positions with top of stack being first move in plan
+     * @param obstacles Static bitmap of the positions occupied by resources
+     * @return path with the first move at the front
      */
-    private Stack<MapLocation> AstarSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent, MapLocation enemyFootmanLoc, Set<MapLocation> resourceLocations)
+    private GridPath AstarSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent, MapLocation enemyFootmanLoc, ObstacleMap obstacles)
     {
-        HashSet<MapLocation> closedList = new HashSet<MapLocation>();
-        PriorityQueue<MapLocation> openList=  new PriorityQueue<>(
-                (node1, node2) -> Float.compare(evaluationFunction(node1, goal), evaluationFunction(node2, goal)));
-        MapLocation current = null;
-    	//add the starting position into the openList
-    	openList.add(start);
-	List<MapLocation> neighbors = new ArrayList<>();
-    	while(!openList.isEmpty()) {
-    		//choose the location with the smallest f function in the open list
-    		current = openList.poll();
-		neighbors.clear();
-    		//if already expanded the current nodes, ignore it
-    		if(closedList.contains(current)) continue;
-    		closedList.add(current);
-    		// Initialized neighboring positions
-    		if (current.x > 0) neighbors.add(new MapLocation(current.x - 1, current.y, current, current.cost + 1));
-    		if (current.y > 0) neighbors.add(new MapLocation(current.x, current.y - 1, current, current.cost + 1));
-    		if (current.x < xExtent - 1) neighbors.add(new MapLocation(current.x + 1, current.y, current, current.cost + 1));
-    		if (current.y < yExtent - 1) neighbors.add(new MapLocation(current.x, current.y + 1, current, current.cost + 1));
-    		if (current.x > 0 && current.y > 0) neighbors.add(new MapLocation(current.x - 1, current.y - 1, current, current.cost + 1));
-    		if (current.x > 0 && current.y < yExtent - 1) neighbors.add(new MapLocation(current.x - 1, current.y + 1, current, current.cost + 1));
-    		if (current.x < xExtent - 1 && current.y > 0) neighbors.add(new MapLocation(current.x + 1, current.y - 1, current, current.cost + 1));
-    		if (current.x < xExtent - 1 && current.y < yExtent - 1) neighbors.add(new MapLocation(current.x + 1, current.y + 1, current, current.cost + 1));
-    		// Check if goal is in the neighboring location of the current position
-    		if(current.isAdjacentTo(goal)) break;
-    		//add the neighboring positions into the open list
-    		for (MapLocation neighbor : neighbors) {
-			if (validLocation(closedList, neighbor, enemyFootmanLoc, resourceLocations)) openList.add(neighbor);
-		}
-    	}
-    	//if don't find a path return empty stack
-    	if(!current.isAdjacentTo(goal))return new Stack<MapLocation>();
-    	//Back track result
-    	Stack<MapLocation> result = new Stack<MapLocation>();
-    	while(!current.equals(start)) {
-    		result.push(current);
-    		current = current.cameFrom;
-    	}
-        return result;
+        prepareGridSearch(xExtent, yExtent);
+        int enemy = enemyFootmanLoc == null ? -1 : gridSearch.index(enemyFootmanLoc.x, enemyFootmanLoc.y);
+        int startCell = gridSearch.index(start.x, start.y);
+        int goalCell = gridSearch.index(goal.x, goal.y);
+
+        // forecast plans depend on the lookahead, which is not part of the cache key
+        if (forecast != null) {
+            forecast.update(obstacles, enemy, startCell);
+            int[] cells = gridSearch.search(startCell, goalCell, obstacles, enemy);
+            lastStats = gridSearch.stats;
+            return toPath(cells, xExtent);
+        }
+        int[] cells = pathCache.get(obstacles, startCell, goalCell, enemy, heuristic);
+        if (cells != null) {
+            lastStats = NO_SEARCH;
+            return toPath(cells, xExtent);
+        }
+        cells = gridSearch.search(startCell, goalCell, obstacles, enemy);
+        lastStats = gridSearch.stats;
+        pathCache.put(obstacles, startCell, goalCell, enemy, heuristic, cells);
+        return toPath(cells, xExtent);
     }
 
-    private boolean validLocation(Set<MapLocation> closedList, MapLocation current, MapLocation enemyFootmanLoc, Set<MapLocation> resourceLocations) {
-    	return !resourceLocations.contains(current) && !closedList.contains(current) && !current.equals(enemyFootmanLoc);
+    /**
+     * Time-bounded alternative to AstarSearch. A new search is rooted at the footman and run for
+     * one turn budget, and the steps towards the most promising node found so far are returned,
+     * so the footman starts moving before the search has reached the townhall. middleStep runs
+     * another slice each time the footman finishes a step, until the search completes. Complete
+     * plans are cached like AstarSearch plans.
+     */
+    private GridPath TimeBoundedSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent, MapLocation enemyFootmanLoc, ObstacleMap obstacles)
+    {
+        prepareGridSearch(xExtent, yExtent);
+        TimeBoundedSearch search = (TimeBoundedSearch) gridSearch;
+        int enemy = enemyFootmanLoc == null ? -1 : search.index(enemyFootmanLoc.x, enemyFootmanLoc.y);
+        int startCell = search.index(start.x, start.y);
+        int goalCell = search.index(goal.x, goal.y);
+
+        if (forecast != null) {
+            forecast.update(obstacles, enemy, startCell);
+        }
+        int[] cells = forecast == null ? pathCache.get(obstacles, startCell, goalCell, enemy, heuristic) : null;
+        if (cells != null) {
+            // nothing left to refine; drop the previous search so middleStep leaves the plan alone
+            search.cancel();
+            lastStats = NO_SEARCH;
+            return toPath(cells, xExtent);
+        }
+        search.begin(startCell, goalCell, obstacles, enemy);
+        cells = search.step(turnBudgetNanos, startCell);
+        lastStats = search.stats;
+        if (search.isComplete() && forecast == null) pathCache.put(obstacles, startCell, goalCell, enemy, heuristic, cells);
+        return toPath(cells, xExtent);
     }
 
-    /***
-     * Evaluation function for A* algorithm
-     * @param node the current map location
-     * @param goal the goal map location
-     * @return the evaluation function of current node
+    /**
+     * The search buffers are sized to the map, so they are only rebuilt if the map changes.
      */
-    private float evaluationFunction(MapLocation node, MapLocation goal) {
-        return node.cost + heuristicFunction(node, goal);
+    private void prepareGridSearch(int xExtent, int yExtent)
+    {
+        if (gridSearch == null || gridSearch.width != xExtent || gridSearch.height != yExtent) {
+            gridSearch = newGridSearch(xExtent, yExtent);
+            forecast = gridSearch.forecast;
+        }
     }
 
-    /***
-     * Heuristic function for A* algorithm
-     * @param node the current map location
-     * @param goal the goal map location
-     * @return the heuristic function of current node
+    /**
+     * Creates search buffers for the selected planner and heuristic. Each instance has its own
+     * heuristic and forecast state, so separate instances can search on separate threads.
+     * Planners that are not grid searches get a plain GridSearch.
+     */
+    private GridSearch newGridSearch(int xExtent, int yExtent)
+    {
+        GridSearch search;
+        if (planner == Planner.JPS) search = new JumpPointSearch(xExtent, yExtent);
+        else if (planner == Planner.BIDIRECTIONAL) search = new BidirectionalSearch(xExtent, yExtent);
+        else if (planner == Planner.TBA) search = new TimeBoundedSearch(xExtent, yExtent);
+        else search = new GridSearch(xExtent, yExtent);
+        if (heuristic == Heuristic.OCTILE) search.heuristic = new GridHeuristic.Octile(xExtent);
+        else if (heuristic == Heuristic.ALT) search.heuristic = new GridHeuristic.Landmarks(landmarks);
+        if (enemyLookahead > 0) search.forecast = new EnemyForecast(xExtent, yExtent, enemyLookahead);
+        return search;
+    }
+
+    /**
+     * Incremental alternative to AstarSearch with the same contract. The first call builds a
+     * D* Lite search tree; later calls only tell it where the footman and the enemy footman
+     * have moved, so a replan costs time proportional to what changed rather than to the map.
+     * Trees are assumed not to change during an episode.
+     */
+    private GridPath DStarLiteSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent, MapLocation enemyFootmanLoc, ObstacleMap obstacles)
+    {
+        int startCell = start.y * xExtent + start.x;
+        int enemy = enemyFootmanLoc == null ? -1 : enemyFootmanLoc.y * xExtent + enemyFootmanLoc.x;
+        int[] cells;
+        if (dStarLite == null) {
+            dStarLite = new DStarLite(obstacles, goal.y * xExtent + goal.x, startCell, enemy);
+            cells = dStarLite.plan();
+        } else {
+            cells = dStarLite.replan(startCell, enemy);
+        }
+        lastStats = dStarLite.stats;
+        return toPath(cells, xExtent);
+    }
+
+    /**
+     * Hierarchical alternative to AstarSearch. The cluster abstraction is searched first and only
+     * the steps to the first waypoint are returned; middleStep asks the planner for the next
+     * segment each time the footman runs out of steps. Falls back to AstarSearch when the
+     * abstraction has no route or the enemy footman cuts off the first segment.
+     */
+    private GridPath HierarchicalSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent, MapLocation enemyFootmanLoc, ObstacleMap obstacles)
+    {
+        int enemy = enemyFootmanLoc == null ? -1 : enemyFootmanLoc.y * xExtent + enemyFootmanLoc.x;
+        int[] cells = hierarchy.plan(start.y * xExtent + start.x, enemy);
+        lastStats = hierarchy.stats;
+        if (cells == null) {
+            return AstarSearch(start, goal, xExtent, yExtent, enemyFootmanLoc, obstacles);
+        }
+        return toPath(cells, xExtent);
+    }
+
+    /**
+     * Flow field alternative to AstarSearch with the same contract. The distance field to the
+     * townhall was built in initialStep, so a plan is only a local patch around the enemy footman
+     * and a walk down the field, one neighbour lookup per step.
+     */
+    private GridPath FlowFieldSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent, MapLocation enemyFootmanLoc, ObstacleMap obstacles)
+    {
+        flowField.setEnemy(enemyFootmanLoc == null ? -1 : enemyFootmanLoc.y * xExtent + enemyFootmanLoc.x);
+        lastStats = flowField.stats;
+        return toPath(flowField.path(start.y * xExtent + start.x), xExtent);
+    }
+
+    /**
+     * Builds the static obstacle bitmap from the resource nodes. Trees never move, so this
+     * is done once per episode in initialStep and shared by every plan.
+     *
+     * @param state
+     * @return
+     */
+    private ObstacleMap buildObstacleMap(State.StateView state)
+    {
+        List<Integer> resourceIDs = state.getAllResourceIds();
+        int[] xs = new int[resourceIDs.size()];
+        int[] ys = new int[resourceIDs.size()];
+        for(int i = 0; i < xs.length; i++)
+        {
+            ResourceNode.ResourceView resource = state.getResourceNode(resourceIDs.get(i));
+            xs[i] = resource.getXPosition();
+            ys[i] = resource.getYPosition();
+        }
+        return new ObstacleMap(state.getXExtent(), state.getYExtent(), xs, ys);
+    }
+
+    /**
+     * Wraps the cell indices returned by the grid search into the GridPath that middleStep
+     * consumes, with the first move at the front.
+     *
+     * @param cells path cells from the first move to the last, or null if there is no path
+     * @param xExtent Width of the map
+     * @return path with the first move at the front, empty if there is no path
      */
-    private float heuristicFunction(MapLocation node, MapLocation goal) {
-        int distancex = Math.abs(node.x - goal.x);
-        int distancey = Math.abs(node.y - goal.y);
-        int heuristicDis = Math.max(distancex, distancey);
-        return heuristicDis + node.cost;
+    private GridPath toPath(int[] cells, int xExtent) {
+        return new GridPath(cells, xExtent);
     }
 
     /**
@@ -0,0 +1,100 @@
+package edu.cwru.sepia.agent;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * Plans paths for many units against one shared ObstacleMap concurrently on a ForkJoinPool.
+ *
+ * The obstacle map, and the landmark tables of an ALT heuristic, are read-only and shared. Each
+ * worker thread gets its own GridSearch from the factory on its first request and reuses it for
+ * every later one, so the searches neither share mutable state nor allocate buffers per request.
+ */
+final class BatchPlanner {
+
+    /**
+     * One unit's search. plan fills in the result fields.
+     */
+    static final class Request {
+        final int unitId;
+        final int start;
+        final int goal;
+        // path cells as returned by GridSearch.search, null if there is no path
+        int[] cells;
+        long nanos;
+        SearchStats stats;
+
+        Request(int unitId, int start, int goal) {
+            this.unitId = unitId;
+            this.start = start;
+            this.goal = goal;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final ThreadLocal<GridSearch> buffers;
+
+    /**
+     * @param factory creates the search buffers of one worker thread; every instance must have its
+     * own heuristic and forecast state
+     */
+    BatchPlanner(ForkJoinPool pool, Supplier<GridSearch> factory) {
+        this.pool = pool;
+        this.buffers = ThreadLocal.withInitial(factory);
+    }
+
+    /**
+     * Plans every request and returns once all are done.
+     *
+     * @param enemy the enemy footman's cell, or -1 if there is none
+     */
+    void plan(List<Request> requests, ObstacleMap obstacles, int enemy) {
+        if (requests.isEmpty()) return;
+        pool.invoke(new PlanTask(requests, 0, requests.size(), obstacles, enemy));
+    }
+
+    /**
+     * Splits its range of requests in halves until a single search is left. A search costs far
+     * more than a fork, so there is no sequential cutoff above one request.
+     */
+    private final class PlanTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Request> requests;
+        private final int from;
+        private final int to;
+        private final ObstacleMap obstacles;
+        private final int enemy;
+
+        PlanTask(List<Request> requests, int from, int to, ObstacleMap obstacles, int enemy) {
+            this.requests = requests;
+            this.from = from;
+            this.to = to;
+            this.obstacles = obstacles;
+            this.enemy = enemy;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                search(requests.get(from));
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new PlanTask(requests, from, mid, obstacles, enemy),
+                    new PlanTask(requests, mid, to, obstacles, enemy));
+        }
+
+        private void search(Request request) {
+            GridSearch search = buffers.get();
+            long startTime = System.nanoTime();
+            if (search.forecast != null) search.forecast.update(obstacles, enemy, request.start);
+            request.cells = search.search(request.start, request.goal, obstacles, enemy);
+            request.nanos = System.nanoTime() - startTime;
+            request.stats = search.stats.copy();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Bidirectional, multi-goal A* over the same grid as GridSearch.
+ *
+ * Instead of expanding until some cell next to the townhall is popped, every free cell next to
+ * the townhall is seeded as an explicit target of a backward search, and the forward search from
+ * the footman and the backward search from the targets run side by side, always advancing the
+ * side with the smaller open list. Whenever one side reaches a cell the other side has already
+ * reached, the joint cost is a candidate for the best path. The search stops once the smallest
+ * f on either open list is no less than the best candidate: every path that has not been seen
+ * yet must pass through an open node on both sides, so neither side can still improve on it.
+ *
+ * The forward side uses the agent's GridHeuristic and the backward side the Chebyshev distance
+ * to the footman. The stopping rule needs both to be admissible, which holds for the Chebyshev
+ * and landmark heuristics.
+ */
+class BidirectionalSearch extends GridSearch {
+
+    private static final float INF = Float.POSITIVE_INFINITY;
+
+    // backward search from the goal cells, stamped with the same search id as the forward side
+    private final float[] gBack;
+    private final int[] parentBack;
+    private final int[] seenBack;
+    private final int[] closedBack;
+    private final IndexedMinHeap openBack;
+
+    private ObstacleMap obstacles;
+    private int enemy;
+    private int goal;
+    private int start;
+    private float best;
+    private int meet;
+
+    BidirectionalSearch(int width, int height) {
+        super(width, height);
+        int cells = width * height;
+        gBack = new float[cells];
+        parentBack = new int[cells];
+        seenBack = new int[cells];
+        closedBack = new int[cells];
+        openBack = new IndexedMinHeap(cells);
+    }
+
+    @Override
+    int[] search(int start, int goal, ObstacleMap obstacles, int enemy) {
+        this.obstacles = obstacles;
+        this.enemy = enemy;
+        this.goal = goal;
+        this.start = start;
+        beginSearch();
+        heuristic.setGoal(goal);
+        openBack.clear();
+        best = INF;
+        meet = -1;
+
+        int goalX = goal % width, goalY = goal / width;
+        if (isAdjacent(start % width, start / width, goalX, goalY)) return new int[0];
+
+        visit(start, 0, -1);
+        float startH = heuristic.estimate(start);
+        open.update(start, startH, startH);
+        stats.onPush(open.size());
+        for (int d = 0; d < 8; d++) {
+            int nx = goalX + DX[d], ny = goalY + DY[d];
+            if (!inBounds(nx, ny) || isBlocked(index(nx, ny))) continue;
+            int cell = index(nx, ny);
+            seenBack[cell] = searchId;
+            gBack[cell] = 0;
+            parentBack[cell] = -1;
+            float h = backwardHeuristic(cell);
+            openBack.update(cell, h, h);
+            stats.onPush(open.size() + openBack.size());
+        }
+
+        while (!open.isEmpty() && !openBack.isEmpty()
+                && Math.max(open.peekKey(), openBack.peekKey()) < best) {
+            if (open.size() <= openBack.size()) expandForward();
+            else expandBackward();
+        }
+        if (meet == -1) return null;
+
+        int length = (int) (gScore[meet] + gBack[meet]);
+        int[] cells = new int[length];
+        int i = (int) gScore[meet] - 1;
+        for (int node = meet; parent[node] != -1; node = parent[node]) cells[i--] = node;
+        i = (int) gScore[meet];
+        for (int node = parentBack[meet]; node != -1; node = parentBack[node]) cells[i++] = node;
+        return cells;
+    }
+
+    private void expandForward() {
+        int current = open.poll();
+        closed[current] = searchId;
+        stats.expanded++;
+        int cx = current % width, cy = current / width;
+        float nextCost = gScore[current] + 1;
+        for (int d = 0; d < 8; d++) {
+            int nx = cx + DX[d], ny = cy + DY[d];
+            if (!inBounds(nx, ny)) continue;
+            int next = index(nx, ny);
+            if (isBlocked(next)) continue;
+            if (closed[next] == searchId) {
+                stats.closedSkips++;
+                continue;
+            }
+            if (seen[next] != searchId || nextCost < gScore[next]) {
+                visit(next, nextCost, current);
+                float h = heuristic.estimate(next);
+                open.update(next, nextCost + h, h);
+                stats.onPush(open.size() + openBack.size());
+                if (seenBack[next] == searchId && nextCost + gBack[next] < best) {
+                    best = nextCost + gBack[next];
+                    meet = next;
+                }
+            }
+        }
+    }
+
+    private void expandBackward() {
+        int current = openBack.poll();
+        closedBack[current] = searchId;
+        stats.expanded++;
+        int cx = current % width, cy = current / width;
+        float nextCost = gBack[current] + 1;
+        for (int d = 0; d < 8; d++) {
+            int nx = cx + DX[d], ny = cy + DY[d];
+            if (!inBounds(nx, ny)) continue;
+            int next = index(nx, ny);
+            if (next != start && isBlocked(next)) continue;
+            if (closedBack[next] == searchId) {
+                stats.closedSkips++;
+                continue;
+            }
+            if (seenBack[next] != searchId || nextCost < gBack[next]) {
+                seenBack[next] = searchId;
+                gBack[next] = nextCost;
+                parentBack[next] = current;
+                float h = backwardHeuristic(next);
+                openBack.update(next, nextCost + h, h);
+                stats.onPush(open.size() + openBack.size());
+                if (seen[next] == searchId && nextCost + gScore[next] < best) {
+                    best = nextCost + gScore[next];
+                    meet = next;
+                }
+            }
+        }
+    }
+
+    private boolean isBlocked(int cell) {
+        return cell == enemy || cell == goal || obstacles.isBlocked(cell);
+    }
+
+    private float backwardHeuristic(int cell) {
+        return Math.max(Math.abs(cell % width - start % width), Math.abs(cell / width - start / width));
+    }
+}
@@ -0,0 +1,168 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Windowed Hierarchical Cooperative A* (WHCA*) for a squad of footmen heading to one townhall.
+ *
+ * The footmen are planned one after another in priority order. Each one runs a space-time A*
+ * over (cell, turn) for up to window turns, where waiting in place is a move like any other,
+ * and then reserves the cells of its path in a shared ReservationTable so the footmen planned
+ * after it route around it, or wait for it to pass. The heuristic is the true distance to the
+ * townhall over the trees alone, read from a FlowField that is only rebuilt when the goal or
+ * layout changes, so the space-time search is well informed and only detours for reservations.
+ *
+ * A path ends when the footman reaches a cell next to the townhall, or at the end of the window;
+ * the caller replans the whole squad before the window runs out. The count of moves refused
+ * because of a reservation is kept for tuning the window against throughput.
+ */
+final class CooperativePlanner {
+
+    final int width;
+    final int height;
+    final int window;
+    private final int cells;
+    private final ReservationTable reservations;
+
+    // distances to the goal over the trees, never patched for the enemy
+    private FlowField field;
+    private long fieldLayout;
+
+    // space-time search over node turn * cells + cell; every move costs one turn, so the first
+    // time a node is reached is the cheapest and no g-scores are needed
+    private final int[] parent;
+    private final int[] seen;
+    private final IndexedMinHeap open;
+    private int searchId;
+    final SearchStats stats = new SearchStats();
+    private int conflicts;
+
+    /**
+     * @param window number of turns each footman plans ahead
+     */
+    CooperativePlanner(int width, int height, int window) {
+        this.width = width;
+        this.height = height;
+        this.window = window;
+        this.cells = width * height;
+        reservations = new ReservationTable(width, height, window);
+        int nodes = (window + 1) * cells;
+        parent = new int[nodes];
+        seen = new int[nodes];
+        open = new IndexedMinHeap(nodes);
+    }
+
+    /**
+     * Plans every footman against the reservations of those before it. The stats cover the whole
+     * round.
+     *
+     * @param starts the footmen's cells, highest priority first
+     * @param enemy the enemy footman's cell, which is treated as blocked for the whole window, or -1
+     * @return each footman's cells from turn 1 on, repeating a cell where it waits; empty if it is
+     * already next to the goal and null if it cannot move
+     */
+    int[][] plan(int[] starts, int goal, ObstacleMap obstacles, int enemy) {
+        stats.reset();
+        reservations.clear();
+        if (field == null || goal != field.goal || obstacles.fingerprint != fieldLayout) {
+            field = new FlowField(obstacles, goal);
+            fieldLayout = obstacles.fingerprint;
+        }
+
+        // nobody may step into a cell another footman stands on, even if that one moves away, and
+        // footmen already attacking hold their cell whatever their priority
+        for (int unit = 0; unit < starts.length; unit++) {
+            if (field.distance(starts[unit]) == 0) {
+                reservations.reserveFrom(starts[unit], 0, unit);
+            } else {
+                reservations.reserve(starts[unit], 0, unit);
+                reservations.reserve(starts[unit], 1, unit);
+            }
+        }
+
+        int[][] paths = new int[starts.length][];
+        for (int unit = 0; unit < starts.length; unit++) {
+            int[] path = search(unit, starts[unit], obstacles, enemy);
+            paths[unit] = path;
+            if (path == null || path.length == 0) {
+                reservations.reserveFrom(starts[unit], 0, unit);
+                continue;
+            }
+            int previous = starts[unit];
+            for (int t = 1; t <= path.length; t++) {
+                // a cell is held for the turn after it is left as well, since moves are not
+                // simultaneous and a footman cannot follow another into the cell it is leaving
+                reservations.reserve(path[t - 1], t, unit);
+                reservations.reserve(previous, t, unit);
+                previous = path[t - 1];
+            }
+            // a footman that arrives stays to attack
+            if (field.distance(previous) == 0) reservations.reserveFrom(previous, path.length, unit);
+        }
+        return paths;
+    }
+
+    /**
+     * @return the number of moves refused because of a reservation, over all rounds
+     */
+    int getConflicts() {
+        return conflicts;
+    }
+
+    private int[] search(int unit, int start, ObstacleMap obstacles, int enemy) {
+        if (field.distance(start) == 0) return new int[0];
+        if (field.distance(start) < 0) return null;
+        open.clear();
+        if (++searchId == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            searchId = 1;
+        }
+
+        seen[start] = searchId;
+        parent[start] = -1;
+        open.update(start, field.distance(start), field.distance(start));
+        stats.onPush(open.size());
+
+        while (!open.isEmpty()) {
+            int node = open.poll();
+            stats.expanded++;
+            int turn = node / cells, cell = node % cells;
+            if (field.distance(cell) == 0 || turn == window) return reconstruct(node);
+
+            int cx = cell % width, cy = cell / width;
+            // the 8 moves, then waiting in place
+            for (int d = 0; d <= 8; d++) {
+                int next = cell;
+                if (d < 8) {
+                    int nx = cx + GridSearch.DX[d], ny = cy + GridSearch.DY[d];
+                    if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+                    next = ny * width + nx;
+                }
+                if (next == enemy || field.distance(next) < 0) continue;
+                int successor = (turn + 1) * cells + next;
+                if (seen[successor] == searchId) {
+                    stats.closedSkips++;
+                    continue;
+                }
+                if (!reservations.canMove(unit, cell, next, turn)) {
+                    conflicts++;
+                    continue;
+                }
+                seen[successor] = searchId;
+                parent[successor] = node;
+                open.update(successor, turn + 1 + field.distance(next), field.distance(next));
+                stats.onPush(open.size());
+            }
+        }
+        return null;
+    }
+
+    private int[] reconstruct(int node) {
+        int[] path = new int[node / cells];
+        for (int i = path.length - 1; i >= 0; i--) {
+            path[i] = node % cells;
+            node = parent[node];
+        }
+        return path;
+    }
+}
@@ -0,0 +1,209 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Incremental planner (D* Lite) for the footman's route to the townhall.
+ *
+ * The search runs backwards from every free cell adjacent to the townhall towards the footman,
+ * and the g/rhs values are kept between plans. When the enemy footman moves, only the cell it
+ * left, the cell it entered and their neighbours are marked inconsistent, so a replan repairs
+ * the part of the search tree that actually changed instead of starting over. The footman's own
+ * movement is absorbed by the key modifier km rather than by re-keying the queue.
+ *
+ * The grid is 8-connected with unit step cost, the same model as GridSearch.
+ */
+class DStarLite {
+
+    private static final float INF = Float.POSITIVE_INFINITY;
+
+    final int width;
+    final int height;
+
+    private final ObstacleMap obstacles;
+    private final int townhall;
+    private final boolean[] goal;
+    private final float[] g;
+    private final float[] rhs;
+    private final IndexedMinHeap open;
+    final SearchStats stats = new SearchStats();
+
+    private int start;
+    private int enemy;
+    private float km;
+
+    /**
+     * @param obstacles cells occupied by trees
+     * @param townhall index of the townhall's cell
+     * @param start index of the footman's cell
+     * @param enemy index of the enemy footman's cell, or -1 if there is none
+     */
+    DStarLite(ObstacleMap obstacles, int townhall, int start, int enemy) {
+        this.width = obstacles.width;
+        this.height = obstacles.height;
+        this.obstacles = obstacles;
+        this.townhall = townhall;
+        this.start = start;
+        this.enemy = enemy;
+
+        int cells = width * height;
+        goal = new boolean[cells];
+        g = new float[cells];
+        rhs = new float[cells];
+        open = new IndexedMinHeap(cells);
+        Arrays.fill(g, INF);
+        Arrays.fill(rhs, INF);
+
+        int tx = townhall % width, ty = townhall / width;
+        for (int d = 0; d < 8; d++) {
+            int nx = tx + GridSearch.DX[d], ny = ty + GridSearch.DY[d];
+            if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+            int cell = ny * width + nx;
+            goal[cell] = true;
+            updateVertex(cell);
+        }
+    }
+
+    /**
+     * Tells the planner where the footman and the enemy footman are now and repairs the path.
+     *
+     * @param newStart index of the footman's cell
+     * @param newEnemy index of the enemy footman's cell, or -1 if there is none
+     * @return the same as plan()
+     */
+    int[] replan(int newStart, int newEnemy) {
+        stats.reset();
+        moveStart(newStart);
+        moveEnemy(newEnemy);
+        return plan();
+    }
+
+    /**
+     * Records that the footman now stands on newStart. Queue keys stay valid because the
+     * heuristic change is folded into km.
+     */
+    private void moveStart(int newStart) {
+        if (newStart == start) return;
+        km += heuristic(start, newStart);
+        start = newStart;
+    }
+
+    /**
+     * Records that the enemy footman now stands on newEnemy (-1 if it is gone) and marks the
+     * affected cells inconsistent.
+     */
+    private void moveEnemy(int newEnemy) {
+        if (newEnemy == enemy) return;
+        int oldEnemy = enemy;
+        enemy = newEnemy;
+        if (oldEnemy >= 0) updateAround(oldEnemy);
+        if (newEnemy >= 0) updateAround(newEnemy);
+    }
+
+    /**
+     * Repairs the search tree and extracts the current best path. Counters in stats cover
+     * everything since the last replan (or since construction for the first plan).
+     *
+     * @return the path cells from the first move to the cell next to the townhall (empty if the
+     * footman is already next to it), or null if no path exists
+     */
+    int[] plan() {
+        computeShortestPath();
+        if (g[start] == INF) return null;
+
+        int[] cells = new int[(int) g[start]];
+        int current = start;
+        for (int i = 0; i < cells.length; i++) {
+            int cx = current % width, cy = current / width;
+            int best = -1;
+            for (int d = 0; d < 8; d++) {
+                int nx = cx + GridSearch.DX[d], ny = cy + GridSearch.DY[d];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+                int next = ny * width + nx;
+                if (!isBlocked(next) && (best == -1 || g[next] < g[best])) best = next;
+            }
+            cells[i] = best;
+            current = best;
+        }
+        return cells;
+    }
+
+    private void computeShortestPath() {
+        while (!open.isEmpty() && (keyLess(open.peekKey(), open.peekTie(), key1(start), key2(start)) || rhs[start] != g[start])) {
+            int u = open.peek();
+            float oldKey1 = open.peekKey(), oldKey2 = open.peekTie();
+            float newKey1 = key1(u), newKey2 = key2(u);
+            if (keyLess(oldKey1, oldKey2, newKey1, newKey2)) {
+                open.update(u, newKey1, newKey2);
+            } else if (g[u] > rhs[u]) {
+                g[u] = rhs[u];
+                open.poll();
+                stats.expanded++;
+                updateNeighbours(u);
+            } else {
+                stats.expanded++;
+                g[u] = INF;
+                updateVertex(u);
+                updateNeighbours(u);
+            }
+        }
+    }
+
+    private void updateAround(int cell) {
+        updateVertex(cell);
+        updateNeighbours(cell);
+    }
+
+    private void updateNeighbours(int cell) {
+        int cx = cell % width, cy = cell / width;
+        for (int d = 0; d < 8; d++) {
+            int nx = cx + GridSearch.DX[d], ny = cy + GridSearch.DY[d];
+            if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+            updateVertex(ny * width + nx);
+        }
+    }
+
+    private void updateVertex(int u) {
+        if (isBlocked(u)) {
+            rhs[u] = INF;
+        } else if (goal[u]) {
+            rhs[u] = 0;
+        } else {
+            float best = INF;
+            int ux = u % width, uy = u / width;
+            for (int d = 0; d < 8; d++) {
+                int nx = ux + GridSearch.DX[d], ny = uy + GridSearch.DY[d];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+                int next = ny * width + nx;
+                if (!isBlocked(next) && g[next] + 1 < best) best = g[next] + 1;
+            }
+            rhs[u] = best;
+        }
+        if (g[u] != rhs[u]) {
+            open.update(u, key1(u), key2(u));
+            stats.onPush(open.size());
+        } else {
+            open.remove(u);
+        }
+    }
+
+    private boolean isBlocked(int cell) {
+        return cell == enemy || cell == townhall || obstacles.isBlocked(cell);
+    }
+
+    private float key1(int cell) {
+        return Math.min(g[cell], rhs[cell]) + heuristic(start, cell) + km;
+    }
+
+    private float key2(int cell) {
+        return Math.min(g[cell], rhs[cell]);
+    }
+
+    private static boolean keyLess(float a1, float a2, float b1, float b2) {
+        return a1 < b1 || (a1 == b1 && a2 < b2);
+    }
+
+    private float heuristic(int a, int b) {
+        return Math.max(Math.abs(a % width - b % width), Math.abs(a / width - b / width));
+    }
+}
@@ -0,0 +1,90 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Time-expanded estimate of where the enemy footman can be over the next few turns, used to
+ * make GridSearch route around cells it is likely to block instead of replanning once it
+ * already stands on the next step.
+ *
+ * update runs a BFS from the enemy over the trees, up to the lookahead, and stores the turn at
+ * which the enemy can first reach each cell. A cell is only a risk if the enemy can get there no
+ * later than the footman, whose arrival turn is bounded below by its Chebyshev distance from the
+ * start. Risky cells cost extra to enter, more the sooner the enemy can reach them. The extra
+ * cost is never negative, so the heuristics stay admissible and consistent.
+ */
+final class EnemyForecast {
+
+    // extra cost of entering a cell the enemy can reach next turn, divided by t for t turns
+    private static final float RISK_COST = 4;
+
+    private final int width;
+    private final int height;
+    private final int lookahead;
+    // arrival[cell] is the enemy's first turn at the cell, valid where stamp[cell] == updateId
+    private final int[] arrival;
+    private final int[] stamp;
+    private final int[] queue;
+    private int updateId;
+    private int enemy = -1;
+    private int startX, startY;
+
+    /**
+     * @param lookahead number of enemy turns to look ahead
+     */
+    EnemyForecast(int width, int height, int lookahead) {
+        this.width = width;
+        this.height = height;
+        this.lookahead = lookahead;
+        int cells = width * height;
+        arrival = new int[cells];
+        stamp = new int[cells];
+        queue = new int[cells];
+    }
+
+    /**
+     * Recomputes the forecast for the enemy at cell enemy and a footman planning from start.
+     *
+     * @param enemy the enemy footman's cell, or -1 if there is none
+     */
+    void update(ObstacleMap obstacles, int enemy, int start) {
+        if (++updateId == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            updateId = 1;
+        }
+        this.enemy = enemy;
+        this.startX = start % width;
+        this.startY = start / width;
+        if (enemy == -1) return;
+
+        stamp[enemy] = updateId;
+        arrival[enemy] = 0;
+        int head = 0, tail = 0;
+        queue[tail++] = enemy;
+        while (head < tail) {
+            int current = queue[head++];
+            int turn = arrival[current] + 1;
+            if (turn > lookahead) continue;
+            int cx = current % width, cy = current / width;
+            for (int d = 0; d < 8; d++) {
+                int nx = cx + GridSearch.DX[d], ny = cy + GridSearch.DY[d];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+                int next = ny * width + nx;
+                if (stamp[next] == updateId || obstacles.isBlocked(next)) continue;
+                stamp[next] = updateId;
+                arrival[next] = turn;
+                queue[tail++] = next;
+            }
+        }
+    }
+
+    /**
+     * @return the extra cost of stepping into cell, 0 if the enemy cannot get there first
+     */
+    float penalty(int cell) {
+        if (enemy == -1 || stamp[cell] != updateId) return 0;
+        int turn = arrival[cell];
+        int footmanTurn = Math.max(Math.abs(cell % width - startX), Math.abs(cell / width - startY));
+        return turn <= footmanTurn ? RISK_COST / Math.max(1, turn) : 0;
+    }
+}
@@ -0,0 +1,239 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Distance field to one townhall over the trees: the number of steps from every cell to the
+ * nearest free cell next to the townhall, from a reverse BFS seeded with all of those cells at
+ * once. It is built once per episode and shared by every footman, and a footman's next move is
+ * just the neighbour with the smallest distance, so no footman has to search.
+ *
+ * The enemy footman is patched in locally. Blocking its cell can only raise the distance of the
+ * cells whose every shortest path runs through it; those are found by a wave outwards from the
+ * enemy along the field and given new distances by a Dijkstra seeded from the unaffected cells
+ * around them. On an 8-connected grid there is nearly always another neighbour at the same
+ * distance, so the wave usually stops right away. The next patch first undoes the previous one.
+ */
+final class FlowField {
+
+    private static final int UNREACHABLE = -1;
+
+    final int width;
+    final int height;
+    final int goal;
+    private final int[] distance;
+
+    // cells changed by the current patch and their distances before it; the enemy cell is first
+    private int[] patched;
+    private int[] original;
+    private int patchSize;
+    private int enemy = -1;
+
+    private final int[] queue;
+    // candidates queued by the current patch, and those found to be affected
+    private final int[] queued;
+    private final int[] affected;
+    private int patchId;
+    private final IndexedMinHeap open;
+    // work done by the last patch
+    final SearchStats stats = new SearchStats();
+
+    FlowField(ObstacleMap obstacles, int goal) {
+        this.width = obstacles.width;
+        this.height = obstacles.height;
+        this.goal = goal;
+        int cells = width * height;
+        distance = new int[cells];
+        queue = new int[cells];
+        queued = new int[cells];
+        affected = new int[cells];
+        patched = new int[16];
+        original = new int[16];
+        open = new IndexedMinHeap(cells);
+
+        Arrays.fill(distance, UNREACHABLE);
+        int head = 0, tail = 0;
+        int gx = goal % width, gy = goal / width;
+        for (int d = 0; d < 8; d++) {
+            int nx = gx + GridSearch.DX[d], ny = gy + GridSearch.DY[d];
+            if (!inBounds(nx, ny) || obstacles.isBlocked(nx, ny)) continue;
+            int cell = ny * width + nx;
+            distance[cell] = 0;
+            queue[tail++] = cell;
+        }
+        // the townhall stands on the goal, so nothing is routed through it
+        distance[goal] = Integer.MIN_VALUE;
+        while (head < tail) {
+            int current = queue[head++];
+            int cx = current % width, cy = current / width;
+            for (int d = 0; d < 8; d++) {
+                int nx = cx + GridSearch.DX[d], ny = cy + GridSearch.DY[d];
+                if (!inBounds(nx, ny)) continue;
+                int next = ny * width + nx;
+                if (distance[next] != UNREACHABLE || obstacles.isBlocked(next)) continue;
+                distance[next] = distance[current] + 1;
+                queue[tail++] = next;
+            }
+        }
+        distance[goal] = UNREACHABLE;
+    }
+
+    /**
+     * @return the number of steps from cell to a cell next to the townhall, or -1 if there is no
+     * way there
+     */
+    int distance(int cell) {
+        return distance[cell];
+    }
+
+    /**
+     * Moves the enemy footman to cell, undoing the patch for its previous cell and patching the
+     * field around the new one. The stats count this call's patch, so they are zero when the
+     * enemy has not moved.
+     *
+     * @param cell the enemy footman's cell, or -1 if there is none
+     */
+    void setEnemy(int cell) {
+        stats.reset();
+        if (cell == enemy) return;
+        for (int i = patchSize - 1; i >= 0; i--) distance[patched[i]] = original[i];
+        patchSize = 0;
+        enemy = cell;
+        if (cell == -1 || distance[cell] == UNREACHABLE) return;
+
+        if (++patchId == Integer.MAX_VALUE) {
+            Arrays.fill(queued, 0);
+            Arrays.fill(affected, 0);
+            patchId = 1;
+        }
+        // wave outwards along the field: a cell is affected if every neighbour one step closer to
+        // the goal is the enemy or is itself affected. The wave moves one distance layer at a
+        // time, so all of a cell's closer neighbours are decided before it is.
+        affected[cell] = patchId;
+        remember(cell);
+        int head = 0, tail = 0;
+        tail = queueFurther(cell, tail);
+        while (head < tail) {
+            int current = queue[head++];
+            stats.expanded++;
+            if (!isAffected(current)) continue;
+            affected[current] = patchId;
+            remember(current);
+            tail = queueFurther(current, tail);
+        }
+        for (int i = 0; i < patchSize; i++) distance[patched[i]] = UNREACHABLE;
+
+        // Dijkstra over the affected cells, seeded from the unaffected cells around them
+        open.clear();
+        for (int i = 1; i < patchSize; i++) {
+            int c = patched[i];
+            int best = UNREACHABLE;
+            int cx = c % width, cy = c / width;
+            for (int d = 0; d < 8; d++) {
+                int nx = cx + GridSearch.DX[d], ny = cy + GridSearch.DY[d];
+                if (!inBounds(nx, ny)) continue;
+                int next = ny * width + nx;
+                if (affected[next] == patchId || distance[next] == UNREACHABLE) continue;
+                if (best == UNREACHABLE || distance[next] < best) best = distance[next];
+            }
+            if (best != UNREACHABLE) {
+                open.update(c, best + 1, 0);
+                stats.onPush(open.size());
+            }
+        }
+        while (!open.isEmpty()) {
+            int through = (int) open.peekKey() + 1;
+            int current = open.poll();
+            stats.expanded++;
+            distance[current] = through - 1;
+            int cx = current % width, cy = current / width;
+            for (int d = 0; d < 8; d++) {
+                int nx = cx + GridSearch.DX[d], ny = cy + GridSearch.DY[d];
+                if (!inBounds(nx, ny)) continue;
+                int next = ny * width + nx;
+                if (affected[next] != patchId || next == cell || distance[next] != UNREACHABLE) continue;
+                if (!open.contains(next) || through < open.keyOf(next)) {
+                    open.update(next, through, 0);
+                    stats.onPush(open.size());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the neighbour to step to from cell, or -1 if cell is next to the townhall or has no
+     * way there
+     */
+    int nextStep(int cell) {
+        if (distance[cell] <= 0) return -1;
+        int best = -1;
+        int cx = cell % width, cy = cell / width;
+        for (int d = 0; d < 8; d++) {
+            int nx = cx + GridSearch.DX[d], ny = cy + GridSearch.DY[d];
+            if (!inBounds(nx, ny)) continue;
+            int next = ny * width + nx;
+            if (distance[next] == UNREACHABLE) continue;
+            if (best == -1 || distance[next] < distance[best]) best = next;
+        }
+        return best;
+    }
+
+    /**
+     * Follows nextStep from start. The field is exact, so every step is one closer.
+     *
+     * @return the path cells from the first move to the cell next to the townhall (empty if start
+     * is already there), or null if there is no way there
+     */
+    int[] path(int start) {
+        if (distance[start] == UNREACHABLE) return null;
+        int[] cells = new int[distance[start]];
+        int current = start;
+        for (int i = 0; i < cells.length; i++) {
+            current = nextStep(current);
+            cells[i] = current;
+        }
+        return cells;
+    }
+
+    private boolean isAffected(int cell) {
+        int cx = cell % width, cy = cell / width;
+        for (int d = 0; d < 8; d++) {
+            int nx = cx + GridSearch.DX[d], ny = cy + GridSearch.DY[d];
+            if (!inBounds(nx, ny)) continue;
+            int next = ny * width + nx;
+            if (distance[next] == distance[cell] - 1 && affected[next] != patchId) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queues the neighbours of cell one step further from the goal that are not queued yet.
+     *
+     * @return the new queue tail
+     */
+    private int queueFurther(int cell, int tail) {
+        int cx = cell % width, cy = cell / width;
+        for (int d = 0; d < 8; d++) {
+            int nx = cx + GridSearch.DX[d], ny = cy + GridSearch.DY[d];
+            if (!inBounds(nx, ny)) continue;
+            int next = ny * width + nx;
+            if (queued[next] == patchId || distance[next] != distance[cell] + 1) continue;
+            queued[next] = patchId;
+            queue[tail++] = next;
+        }
+        return tail;
+    }
+
+    private void remember(int cell) {
+        if (patchSize == patched.length) {
+            patched = Arrays.copyOf(patched, patchSize * 2);
+            original = Arrays.copyOf(original, patchSize * 2);
+        }
+        patched[patchSize] = cell;
+        original[patchSize++] = distance[cell];
+    }
+
+    private boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+}
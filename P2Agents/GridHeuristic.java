@@ -0,0 +1,209 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Estimate of the number of steps from a cell to the nearest cell next to the townhall, used by
+ * GridSearch and its subclasses to order the open list. The estimate is computed once when a
+ * node is pushed and stored as its key, never inside a comparison.
+ *
+ * setGoal is called at the start of every search with the townhall's cell, so implementations
+ * can precompute anything that depends only on the goal.
+ */
+interface GridHeuristic {
+
+    void setGoal(int goal);
+
+    float estimate(int cell);
+
+    /**
+     * Chebyshev distance to the townhall minus one. This is the exact step count on open ground
+     * for the unit-cost 8-connected grid, and it is consistent because a single step changes it
+     * by at most one.
+     */
+    final class Chebyshev implements GridHeuristic {
+
+        private final int width;
+        private int goalX, goalY;
+
+        Chebyshev(int width) {
+            this.width = width;
+        }
+
+        @Override
+        public void setGoal(int goal) {
+            goalX = goal % width;
+            goalY = goal / width;
+        }
+
+        @Override
+        public float estimate(int cell) {
+            int dx = Math.abs(cell % width - goalX), dy = Math.abs(cell / width - goalY);
+            return Math.max(0, Math.max(dx, dy) - 1);
+        }
+    }
+
+    /**
+     * Octile distance to the townhall minus one. It is only admissible when a diagonal step costs
+     * sqrt(2); on this grid a diagonal step costs 1, so it overestimates by up to a factor of
+     * about 1.41 and the search behaves like weighted A*. Paths can be that much longer than
+     * optimal, but the search favours straight runs and usually expands fewer nodes.
+     */
+    final class Octile implements GridHeuristic {
+
+        private static final float DIAGONAL_EXTRA = (float) (Math.sqrt(2) - 1);
+
+        private final int width;
+        private int goalX, goalY;
+
+        Octile(int width) {
+            this.width = width;
+        }
+
+        @Override
+        public void setGoal(int goal) {
+            goalX = goal % width;
+            goalY = goal / width;
+        }
+
+        @Override
+        public float estimate(int cell) {
+            int dx = Math.abs(cell % width - goalX), dy = Math.abs(cell / width - goalY);
+            return Math.max(0, Math.max(dx, dy) + DIAGONAL_EXTRA * Math.min(dx, dy) - 1);
+        }
+    }
+
+    /**
+     * ALT (A*, landmarks, triangle inequality). A few landmark cells are chosen by farthest-point
+     * selection and the BFS distance from each landmark to every cell is stored over the tree
+     * layout. For a landmark L and goal set G the triangle inequality gives
+     *
+     *   d(n, G) >= min over g of d(L, g) - d(L, n)   and   d(n, G) >= d(L, n) - max over g of d(L, g)
+     *
+     * and the estimate is the largest of these bounds and the Chebyshev bound. Each bound changes
+     * by at most one per step, so their maximum stays consistent. The enemy footman only makes
+     * true distances longer, so the bound still holds when it blocks a cell.
+     *
+     * The tables are built once per episode and are read-only. An instance made with the copy
+     * constructor shares them and only has its own goal bounds.
+     */
+    final class Landmarks implements GridHeuristic {
+
+        private final int width;
+        private final int height;
+        // distance[l][cell] is the BFS distance from landmark l, or -1 if the cell is unreachable
+        private final int[][] distance;
+        private final Chebyshev chebyshev;
+        private final int[] goalMin;
+        private final int[] goalMax;
+
+        /**
+         * @param count number of landmarks to place
+         */
+        Landmarks(ObstacleMap obstacles, int count) {
+            this.width = obstacles.width;
+            this.height = obstacles.height;
+            this.chebyshev = new Chebyshev(width);
+            int cells = width * height;
+
+            int first = 0;
+            while (first < cells && obstacles.isBlocked(first)) first++;
+            int[] nearest = new int[cells];
+            Arrays.fill(nearest, Integer.MAX_VALUE);
+            int[] queue = new int[cells];
+
+            // the first landmark is the cell farthest from an arbitrary free cell, and every later
+            // one is the reachable cell farthest from all landmarks chosen so far
+            int[][] tables = new int[count][];
+            int next = first < cells ? farthest(bfs(obstacles, first, queue), nearest, false) : -1;
+            int placed = 0;
+            while (placed < count && next != -1) {
+                tables[placed] = bfs(obstacles, next, queue);
+                next = farthest(tables[placed], nearest, true);
+                placed++;
+            }
+            distance = Arrays.copyOf(tables, placed);
+            goalMin = new int[placed];
+            goalMax = new int[placed];
+        }
+
+        Landmarks(Landmarks shared) {
+            this.width = shared.width;
+            this.height = shared.height;
+            this.distance = shared.distance;
+            this.chebyshev = new Chebyshev(width);
+            this.goalMin = new int[distance.length];
+            this.goalMax = new int[distance.length];
+        }
+
+        @Override
+        public void setGoal(int goal) {
+            chebyshev.setGoal(goal);
+            int gx = goal % width, gy = goal / width;
+            for (int l = 0; l < distance.length; l++) {
+                goalMin[l] = Integer.MAX_VALUE;
+                goalMax[l] = -1;
+                for (int d = 0; d < 8; d++) {
+                    int nx = gx + GridSearch.DX[d], ny = gy + GridSearch.DY[d];
+                    if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+                    int toGoal = distance[l][ny * width + nx];
+                    if (toGoal < 0) continue;
+                    goalMin[l] = Math.min(goalMin[l], toGoal);
+                    goalMax[l] = Math.max(goalMax[l], toGoal);
+                }
+            }
+        }
+
+        @Override
+        public float estimate(int cell) {
+            int best = (int) chebyshev.estimate(cell);
+            for (int l = 0; l < distance.length; l++) {
+                int toCell = distance[l][cell];
+                // skip landmarks that cannot reach the cell or any goal cell
+                if (toCell < 0 || goalMax[l] < 0) continue;
+                best = Math.max(best, Math.max(goalMin[l] - toCell, toCell - goalMax[l]));
+            }
+            return best;
+        }
+
+        private int[] bfs(ObstacleMap obstacles, int source, int[] queue) {
+            int[] dist = new int[width * height];
+            Arrays.fill(dist, -1);
+            dist[source] = 0;
+            int head = 0, tail = 0;
+            queue[tail++] = source;
+            while (head < tail) {
+                int current = queue[head++];
+                int cx = current % width, cy = current / width;
+                for (int d = 0; d < 8; d++) {
+                    int nx = cx + GridSearch.DX[d], ny = cy + GridSearch.DY[d];
+                    if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+                    int next = ny * width + nx;
+                    if (dist[next] != -1 || obstacles.isBlocked(next)) continue;
+                    dist[next] = dist[current] + 1;
+                    queue[tail++] = next;
+                }
+            }
+            return dist;
+        }
+
+        /**
+         * @param update whether to fold dist into the running distance to the nearest landmark
+         * @return the reachable cell with the largest distance to the nearest landmark (or to the
+         * BFS source if update is false), or -1 if every reachable cell is already a landmark
+         */
+        private static int farthest(int[] dist, int[] nearest, boolean update) {
+            int best = -1;
+            for (int cell = 0; cell < dist.length; cell++) {
+                if (dist[cell] < 0) continue;
+                int d = dist[cell];
+                if (update) {
+                    nearest[cell] = Math.min(nearest[cell], d);
+                    d = nearest[cell];
+                }
+                if (d > 0 && (best == -1 || d > (update ? nearest[best] : dist[best]))) best = cell;
+            }
+            return best;
+        }
+    }
+}
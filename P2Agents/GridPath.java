@@ -0,0 +1,71 @@
+package edu.cwru.sepia.agent;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A planned path as the cell indices the grid searches return, consumed from the front by a
+ * cursor. It replaces a Stack of MapLocations, which is synchronized on every access and whose
+ * locations each linked back to the start, keeping a whole chain of objects alive for as long
+ * as the footman walks the path.
+ */
+final class GridPath {
+
+    final int width;
+    // path cells from the first move to the last; cells before next have been taken
+    private final int[] cells;
+    private int next;
+
+    /**
+     * @param cells path cells from the first move to the last, or null if there is no path
+     * @param width width of the map the cells index
+     */
+    GridPath(int[] cells, int width) {
+        this.cells = cells == null ? new int[0] : cells;
+        this.width = width;
+    }
+
+    boolean isEmpty() {
+        return next == cells.length;
+    }
+
+    /**
+     * @return the number of steps not taken yet
+     */
+    int remaining() {
+        return cells.length - next;
+    }
+
+    /**
+     * @return the cell of the next step, without taking it
+     */
+    int peek() {
+        if (isEmpty()) throw new NoSuchElementException();
+        return cells[next];
+    }
+
+    /**
+     * @return the cell of the next step, which is taken
+     */
+    int pop() {
+        if (isEmpty()) throw new NoSuchElementException();
+        return cells[next++];
+    }
+
+    /**
+     * @return true if cell is one of the steps not taken yet
+     */
+    boolean contains(int cell) {
+        for (int i = next; i < cells.length; i++) {
+            if (cells[i] == cell) return true;
+        }
+        return false;
+    }
+
+    int x(int cell) {
+        return cell % width;
+    }
+
+    int y(int cell) {
+        return cell / width;
+    }
+}
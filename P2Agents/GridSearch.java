@@ -0,0 +1,135 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Grid-indexed A* engine behind AstarAgent.AstarSearch.
+ *
+ * A cell (x, y) is packed into the int index y * width + x. The g-scores, parents and closed
+ * flags live in primitive arrays that are allocated once per map size and reused by every
+ * search, so expanding a node does not allocate. Instead of clearing the arrays between
+ * searches, each entry is stamped with the id of the search that wrote it and anything with
+ * an older stamp is treated as unvisited.
+ */
+class GridSearch {
+
+    // the 8 neighbour offsets: 4 straight moves followed by 4 diagonal moves
+    static final int[] DX = {-1, 0, 1, 0, -1, -1, 1, 1};
+    static final int[] DY = {0, -1, 0, 1, -1, 1, -1, 1};
+
+    final int width;
+    final int height;
+
+    final float[] gScore;
+    final int[] parent;
+    final int[] seen;
+    final int[] closed;
+    final IndexedMinHeap open;
+    int searchId;
+    final SearchStats stats = new SearchStats();
+    // estimate of the steps left to a cell next to the goal
+    GridHeuristic heuristic;
+    // extra step costs around the enemy footman, or null to only block its current cell
+    EnemyForecast forecast;
+
+    GridSearch(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int cells = width * height;
+        gScore = new float[cells];
+        parent = new int[cells];
+        seen = new int[cells];
+        closed = new int[cells];
+        open = new IndexedMinHeap(cells);
+        heuristic = new GridHeuristic.Chebyshev(width);
+    }
+
+    int index(int x, int y) {
+        return y * width + x;
+    }
+
+    boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * Runs A* from start until a cell adjacent to goal is expanded.
+     *
+     * @param start index of the footman's cell
+     * @param goal index of the townhall's cell
+     * @param obstacles cells occupied by trees
+     * @param enemy index of the enemy footman's cell, or -1 if there is none
+     * @return the path cells from the first move to the cell next to the goal (empty if the start is
+     * already next to the goal), or null if no path exists
+     */
+    int[] search(int start, int goal, ObstacleMap obstacles, int enemy) {
+        beginSearch();
+        heuristic.setGoal(goal);
+        int goalX = goal % width, goalY = goal / width;
+
+        visit(start, 0, -1);
+        float startH = heuristic.estimate(start);
+        open.update(start, startH, startH);
+        stats.onPush(open.size());
+
+        while (!open.isEmpty()) {
+            int current = open.poll();
+            closed[current] = searchId;
+            stats.expanded++;
+            int cx = current % width, cy = current / width;
+            if (isAdjacent(cx, cy, goalX, goalY)) return reconstruct(current);
+
+            float stepCost = gScore[current] + 1;
+            for (int d = 0; d < 8; d++) {
+                int nx = cx + DX[d], ny = cy + DY[d];
+                if (!inBounds(nx, ny)) continue;
+                int next = index(nx, ny);
+                if (next == enemy || obstacles.isBlocked(next)) continue;
+                if (closed[next] == searchId) {
+                    stats.closedSkips++;
+                    continue;
+                }
+                float nextCost = forecast == null ? stepCost : stepCost + forecast.penalty(next);
+                if (seen[next] != searchId || nextCost < gScore[next]) {
+                    visit(next, nextCost, current);
+                    float h = heuristic.estimate(next);
+                    open.update(next, nextCost + h, h);
+                    stats.onPush(open.size());
+                }
+            }
+        }
+        return null;
+    }
+
+    void beginSearch() {
+        open.clear();
+        stats.reset();
+        if (++searchId == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            searchId = 1;
+        }
+    }
+
+    void visit(int node, float cost, int from) {
+        seen[node] = searchId;
+        gScore[node] = cost;
+        parent[node] = from;
+    }
+
+    static boolean isAdjacent(int x, int y, int goalX, int goalY) {
+        int dx = Math.abs(x - goalX), dy = Math.abs(y - goalY);
+        return (dx != 0 || dy != 0) && dx <= 1 && dy <= 1;
+    }
+
+    /**
+     * Walks the parent links back from the last cell. The start cell is not included.
+     */
+    int[] reconstruct(int last) {
+        int length = 0;
+        for (int node = last; parent[node] != -1; node = parent[node]) length++;
+        int[] cells = new int[length];
+        for (int node = last, i = length - 1; i >= 0; node = parent[node], i--) cells[i] = node;
+        return cells;
+    }
+}
@@ -0,0 +1,399 @@
+package edu.cwru.sepia.agent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hierarchical path abstraction (HPA*) for large maps.
+ *
+ * The grid is cut into square clusters of clusterSize cells. Wherever two neighbouring
+ * clusters share a run of free cells along their border, one or two transition cells are placed
+ * on each side of the run. Transitions are the nodes of an abstract graph: a transition is
+ * linked to its partner across the border at cost 1, and to every other transition in its
+ * own cluster at the BFS distance inside that cluster. All of this depends only on the trees,
+ * so it is built once per episode.
+ *
+ * A query links the footman's cell and the free cells next to the townhall into the graph,
+ * searches the small abstract graph, and keeps the resulting waypoints. Only the segment to the
+ * first waypoint is refined into single steps; later segments are refined on demand as the
+ * footman reaches each waypoint. The enemy footman is not part of the abstraction; it is only
+ * avoided when a segment is refined.
+ */
+class HierarchicalPlanner {
+
+    private static final int INF = Integer.MAX_VALUE;
+    // a border run at least this long gets a transition at each end instead of one in the middle
+    private static final int MIN_SPLIT_ENTRANCE = 6;
+
+    final int width;
+    final int height;
+    final int clusterSize;
+
+    private final ObstacleMap obstacles;
+    private final int townhall;
+    private final int clustersX;
+
+    // abstract graph: node i sits on cell nodeCell[i] and has edges edgeTo[i] with costs edgeCost[i]
+    private final int[] nodeCell;
+    private final int[][] edgeTo;
+    private final int[][] edgeCost;
+    // nodes of each cluster, indexed by cluster id
+    private final int[][] clusterNodes;
+    // free cells next to the townhall, and for each node the cost to the nearest one in its cluster
+    private final int[] goalCells;
+    private final int[] goalCost;
+    private final int[] goalCell;
+
+    // BFS buffers, reused for every cluster-bounded search
+    private final int[] distance;
+    private final int[] parent;
+    private final int[] seen;
+    private final int[] queue;
+    private int searchId;
+    final SearchStats stats = new SearchStats();
+
+    // waypoints of the current plan and the next one to refine towards
+    private int[] waypoints = new int[0];
+    private int nextWaypoint;
+
+    /**
+     * @param obstacles cells occupied by trees
+     * @param townhall index of the townhall's cell
+     * @param clusterSize width and height of a cluster in cells
+     */
+    HierarchicalPlanner(ObstacleMap obstacles, int townhall, int clusterSize) {
+        this.obstacles = obstacles;
+        this.width = obstacles.width;
+        this.height = obstacles.height;
+        this.townhall = townhall;
+        this.clusterSize = clusterSize;
+        this.clustersX = (width + clusterSize - 1) / clusterSize;
+        int clustersY = (height + clusterSize - 1) / clusterSize;
+
+        int cells = width * height;
+        distance = new int[cells];
+        parent = new int[cells];
+        seen = new int[cells];
+        queue = new int[cells];
+
+        List<Integer> goals = new ArrayList<>();
+        int tx = townhall % width, ty = townhall / width;
+        for (int d = 0; d < 8; d++) {
+            int nx = tx + GridSearch.DX[d], ny = ty + GridSearch.DY[d];
+            if (nx >= 0 && ny >= 0 && nx < width && ny < height && !obstacles.isBlocked(nx, ny)) goals.add(ny * width + nx);
+        }
+        goalCells = toArray(goals);
+
+        // place the transitions on every shared border
+        int[] nodeOfCell = new int[cells];
+        Arrays.fill(nodeOfCell, -1);
+        List<Integer> cellsOfNodes = new ArrayList<>();
+        List<int[]> interEdges = new ArrayList<>();
+        for (int cy = 0; cy < clustersY; cy++) {
+            for (int cx = 0; cx < clustersX; cx++) {
+                int x0 = cx * clusterSize, y0 = cy * clusterSize;
+                int x1 = Math.min(x0 + clusterSize, width) - 1, y1 = Math.min(y0 + clusterSize, height) - 1;
+                if (x1 + 1 < width) {
+                    addEntrances(x1, y0, x1 + 1, y0, 0, 1, y1 - y0 + 1, nodeOfCell, cellsOfNodes, interEdges);
+                }
+                if (y1 + 1 < height) {
+                    addEntrances(x0, y1, x0, y1 + 1, 1, 0, x1 - x0 + 1, nodeOfCell, cellsOfNodes, interEdges);
+                }
+            }
+        }
+
+        int nodes = cellsOfNodes.size();
+        nodeCell = new int[nodes];
+        for (int i = 0; i < nodes; i++) nodeCell[i] = cellsOfNodes.get(i);
+
+        List<List<Integer>> byCluster = new ArrayList<>();
+        for (int i = 0; i < clustersX * clustersY; i++) byCluster.add(new ArrayList<>());
+        for (int i = 0; i < nodes; i++) byCluster.get(clusterOf(nodeCell[i])).add(i);
+        clusterNodes = new int[byCluster.size()][];
+        for (int i = 0; i < clusterNodes.length; i++) clusterNodes[i] = toArray(byCluster.get(i));
+
+        // intra-cluster edges from a BFS inside each cluster, plus the border crossings
+        List<List<int[]>> edges = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) edges.add(new ArrayList<>());
+        for (int[] edge : interEdges) {
+            edges.get(edge[0]).add(new int[]{edge[1], 1});
+            edges.get(edge[1]).add(new int[]{edge[0], 1});
+        }
+        goalCost = new int[nodes];
+        goalCell = new int[nodes];
+        Arrays.fill(goalCost, INF);
+        for (int cluster = 0; cluster < clusterNodes.length; cluster++) {
+            for (int from : clusterNodes[cluster]) {
+                bfs(new int[]{nodeCell[from]}, cluster, -1, -1);
+                for (int to : clusterNodes[cluster]) {
+                    if (to != from && seen[nodeCell[to]] == searchId) {
+                        edges.get(from).add(new int[]{to, distance[nodeCell[to]]});
+                    }
+                }
+                int best = nearestGoal(cluster, -1);
+                if (best != -1) {
+                    goalCost[from] = distance[best];
+                    goalCell[from] = best;
+                }
+            }
+        }
+
+        edgeTo = new int[nodes][];
+        edgeCost = new int[nodes][];
+        for (int i = 0; i < nodes; i++) {
+            List<int[]> list = edges.get(i);
+            edgeTo[i] = new int[list.size()];
+            edgeCost[i] = new int[list.size()];
+            for (int e = 0; e < list.size(); e++) {
+                edgeTo[i][e] = list.get(e)[0];
+                edgeCost[i][e] = list.get(e)[1];
+            }
+        }
+    }
+
+    /**
+     * Scans the border between two clusters and adds transitions for each run of cells that are
+     * free on both sides. (ax, ay) and (bx, by) are the first pair of facing cells, and (stepX,
+     * stepY) walks along the border for length cells.
+     */
+    private void addEntrances(int ax, int ay, int bx, int by, int stepX, int stepY, int length,
+                              int[] nodeOfCell, List<Integer> cellsOfNodes, List<int[]> interEdges) {
+        int runStart = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean open = i < length
+                    && !obstacles.isBlocked(ax + i * stepX, ay + i * stepY)
+                    && !obstacles.isBlocked(bx + i * stepX, by + i * stepY);
+            if (open && runStart == -1) {
+                runStart = i;
+            } else if (!open && runStart != -1) {
+                int runEnd = i - 1;
+                if (runEnd - runStart + 1 >= MIN_SPLIT_ENTRANCE) {
+                    addTransition(ax, ay, bx, by, stepX, stepY, runStart, nodeOfCell, cellsOfNodes, interEdges);
+                    addTransition(ax, ay, bx, by, stepX, stepY, runEnd, nodeOfCell, cellsOfNodes, interEdges);
+                } else {
+                    addTransition(ax, ay, bx, by, stepX, stepY, (runStart + runEnd) / 2, nodeOfCell, cellsOfNodes, interEdges);
+                }
+                runStart = -1;
+            }
+        }
+    }
+
+    private void addTransition(int ax, int ay, int bx, int by, int stepX, int stepY, int offset,
+                               int[] nodeOfCell, List<Integer> cellsOfNodes, List<int[]> interEdges) {
+        int a = (ay + offset * stepY) * width + ax + offset * stepX;
+        int b = (by + offset * stepY) * width + bx + offset * stepX;
+        interEdges.add(new int[]{nodeFor(a, nodeOfCell, cellsOfNodes), nodeFor(b, nodeOfCell, cellsOfNodes)});
+    }
+
+    private static int nodeFor(int cell, int[] nodeOfCell, List<Integer> cellsOfNodes) {
+        if (nodeOfCell[cell] == -1) {
+            nodeOfCell[cell] = cellsOfNodes.size();
+            cellsOfNodes.add(cell);
+        }
+        return nodeOfCell[cell];
+    }
+
+    /**
+     * Searches the abstract graph from start and refines the first segment.
+     *
+     * @param start index of the footman's cell
+     * @param enemy index of the enemy footman's cell, or -1 if there is none
+     * @return the steps to the first waypoint (empty if the footman is already next to the
+     * townhall), or null if the abstraction finds no route or the first segment is blocked
+     */
+    int[] plan(int start, int enemy) {
+        stats.reset();
+        waypoints = abstractSearch(start);
+        nextWaypoint = 0;
+        if (waypoints == null) {
+            waypoints = new int[0];
+            return null;
+        }
+        if (isGoal(start)) {
+            waypoints = new int[0];
+            return new int[0];
+        }
+        return nextSegment(start, enemy);
+    }
+
+    boolean hasNextSegment() {
+        return nextWaypoint < waypoints.length;
+    }
+
+    /**
+     * Refines the steps from the footman's cell to the next waypoint.
+     *
+     * @return the steps, or null if the enemy footman cuts the segment off
+     */
+    int[] nextSegment(int from, int enemy) {
+        int target = waypoints[nextWaypoint++];
+        if (GridSearch.isAdjacent(from % width, from / width, target % width, target / width)) {
+            if (target != enemy) return new int[]{target};
+            waypoints = new int[0];
+            return null;
+        }
+        // a footman pushed off its cluster searches the whole map, but only as far as the target
+        int cluster = clusterOf(from) == clusterOf(target) ? clusterOf(from) : -1;
+        // the last waypoint is a goal cell; any goal cell in the cluster is as good as the planned one
+        boolean anyGoal = nextWaypoint == waypoints.length && cluster != -1;
+        bfs(new int[]{from}, cluster, enemy, anyGoal ? -1 : target);
+        int end = anyGoal ? nearestGoal(cluster, enemy) : -1;
+        if (end == -1) end = target;
+        if (seen[end] != searchId) {
+            waypoints = new int[0];
+            return null;
+        }
+        int[] cells = new int[distance[end]];
+        for (int cell = end, i = cells.length - 1; i >= 0; cell = parent[cell], i--) cells[i] = cell;
+        return cells;
+    }
+
+    /**
+     * A* over the transitions, with the footman's cell as the source and the goal cells as
+     * targets. Both are linked in with a BFS inside their clusters.
+     *
+     * @return the waypoint cells after start, ending with a goal cell, or null if none is reachable
+     */
+    private int[] abstractSearch(int start) {
+        int nodes = nodeCell.length;
+        int source = nodes, target = nodes + 1;
+        int[] g = new int[nodes + 2];
+        int[] from = new int[nodes + 2];
+        boolean[] closed = new boolean[nodes + 2];
+        Arrays.fill(g, INF);
+        Arrays.fill(from, -1);
+
+        IndexedMinHeap open = new IndexedMinHeap(nodes + 2);
+        g[source] = 0;
+        open.update(source, 0, 0);
+        int startCluster = clusterOf(start);
+        int directGoal = -1;
+        while (!open.isEmpty()) {
+            int current = open.poll();
+            closed[current] = true;
+            stats.expanded++;
+            if (current == target) break;
+
+            if (current == source) {
+                bfs(new int[]{start}, startCluster, -1, -1);
+                for (int node : clusterNodes[startCluster]) {
+                    if (seen[nodeCell[node]] == searchId) relax(open, g, from, closed, source, node, distance[nodeCell[node]]);
+                }
+                directGoal = nearestGoal(startCluster, -1);
+                if (directGoal != -1) relax(open, g, from, closed, source, target, distance[directGoal]);
+                continue;
+            }
+            for (int e = 0; e < edgeTo[current].length; e++) {
+                relax(open, g, from, closed, current, edgeTo[current][e], edgeCost[current][e]);
+            }
+            if (goalCost[current] != INF) relax(open, g, from, closed, current, target, goalCost[current]);
+        }
+        if (g[target] == INF) return null;
+
+        int length = 0;
+        for (int node = target; node != source; node = from[node]) length++;
+        int[] result = new int[length];
+        for (int node = target, i = length - 1; node != source; node = from[node], i--) {
+            if (node == target) result[i] = from[node] == source ? directGoal : goalCell[from[node]];
+            else result[i] = nodeCell[node];
+        }
+        return result;
+    }
+
+    private void relax(IndexedMinHeap open, int[] g, int[] from, boolean[] closed, int node, int next, int cost) {
+        if (closed[next]) {
+            stats.closedSkips++;
+            return;
+        }
+        if (g[node] + cost >= g[next]) return;
+        g[next] = g[node] + cost;
+        from[next] = node;
+        float h = next < nodeCell.length ? lowerBound(nodeCell[next]) : 0;
+        open.update(next, g[next] + h, h);
+        stats.onPush(open.size());
+    }
+
+    /**
+     * @return the goal cell in the cluster that the last BFS reached first, or -1 if it reached none
+     */
+    private int nearestGoal(int cluster, int enemy) {
+        int best = -1;
+        for (int cell : goalCells) {
+            if (cell != enemy && clusterOf(cell) == cluster && seen[cell] == searchId
+                    && (best == -1 || distance[cell] < distance[best])) best = cell;
+        }
+        return best;
+    }
+
+    private boolean isGoal(int cell) {
+        for (int goal : goalCells) {
+            if (goal == cell) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Chebyshev distance to the townhall minus one, a lower bound on the steps to any goal cell.
+     */
+    private int lowerBound(int cell) {
+        return Math.max(0, Math.max(Math.abs(cell % width - townhall % width), Math.abs(cell / width - townhall / width)) - 1);
+    }
+
+    /**
+     * Breadth-first search from the sources. The search stays inside the given cluster (or is
+     * unbounded if cluster is -1) and treats the enemy's cell as blocked. It stops as soon as it
+     * reaches stop, unless stop is -1.
+     */
+    private void bfs(int[] sources, int cluster, int enemy, int stop) {
+        if (++searchId == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            searchId = 1;
+        }
+        int x0 = 0, y0 = 0, x1 = width - 1, y1 = height - 1;
+        if (cluster != -1) {
+            x0 = (cluster % clustersX) * clusterSize;
+            y0 = (cluster / clustersX) * clusterSize;
+            x1 = Math.min(x0 + clusterSize, width) - 1;
+            y1 = Math.min(y0 + clusterSize, height) - 1;
+        }
+        int head = 0, tail = 0;
+        for (int source : sources) {
+            seen[source] = searchId;
+            distance[source] = 0;
+            parent[source] = -1;
+            queue[tail++] = source;
+        }
+        while (head < tail) {
+            int current = queue[head++];
+            stats.expanded++;
+            int cx = current % width, cy = current / width;
+            for (int d = 0; d < 8; d++) {
+                int nx = cx + GridSearch.DX[d], ny = cy + GridSearch.DY[d];
+                if (nx < x0 || ny < y0 || nx > x1 || ny > y1) continue;
+                int next = ny * width + nx;
+                if (next == enemy || next == townhall || obstacles.isBlocked(next)) continue;
+                if (seen[next] == searchId) {
+                    stats.closedSkips++;
+                    continue;
+                }
+                seen[next] = searchId;
+                distance[next] = distance[current] + 1;
+                parent[next] = current;
+                if (next == stop) return;
+                queue[tail++] = next;
+                stats.onPush(tail - head);
+            }
+        }
+    }
+
+    private int clusterOf(int cell) {
+        return (cell / width / clusterSize) * clustersX + (cell % width) / clusterSize;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) array[i] = list.get(i);
+        return array;
+    }
+}
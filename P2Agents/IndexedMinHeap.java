@@ -0,0 +1,140 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap over the int node ids [0, capacity) used by the grid searches.
+ *
+ * Every node is in the heap at most once. Its slot is tracked in a position array so that
+ * contains, decrease-key and remove are O(1)/O(log n) without any boxing. Entries are ordered
+ * by key and then by tie, so callers can use the tie to break equal f-scores (or to hold the
+ * second component of a lexicographic key).
+ */
+class IndexedMinHeap {
+
+    private final int[] heap;
+    private final int[] position;
+    private final float[] key;
+    private final float[] tie;
+    private int size;
+
+    IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        key = new float[capacity];
+        tie = new float[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int node) {
+        return position[node] >= 0;
+    }
+
+    /**
+     * Empties the heap. Only the slots that are in use are reset, so this is O(size) rather than O(capacity).
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    int peek() {
+        return heap[0];
+    }
+
+    float peekKey() {
+        return key[heap[0]];
+    }
+
+    float peekTie() {
+        return tie[heap[0]];
+    }
+
+    float keyOf(int node) {
+        return key[node];
+    }
+
+    int poll() {
+        int top = heap[0];
+        removeAt(0);
+        return top;
+    }
+
+    /**
+     * Inserts the node, or moves it to the new key if it is already queued. The key may go up or down.
+     */
+    void update(int node, float newKey, float newTie) {
+        int slot = position[node];
+        key[node] = newKey;
+        tie[node] = newTie;
+        if (slot < 0) {
+            heap[size] = node;
+            position[node] = size;
+            siftUp(size++);
+        } else {
+            siftUp(slot);
+            siftDown(position[node]);
+        }
+    }
+
+    void remove(int node) {
+        int slot = position[node];
+        if (slot >= 0) removeAt(slot);
+    }
+
+    private void removeAt(int slot) {
+        int removed = heap[slot];
+        position[removed] = -1;
+        size--;
+        if (slot == size) return;
+        int last = heap[size];
+        heap[slot] = last;
+        position[last] = slot;
+        siftUp(slot);
+        siftDown(position[last]);
+    }
+
+    private boolean less(int a, int b) {
+        return key[a] < key[b] || (key[a] == key[b] && tie[a] < tie[b]);
+    }
+
+    private void siftUp(int slot) {
+        int node = heap[slot];
+        while (slot > 0) {
+            int parentSlot = (slot - 1) >>> 1;
+            int parent = heap[parentSlot];
+            if (!less(node, parent)) break;
+            heap[slot] = parent;
+            position[parent] = slot;
+            slot = parentSlot;
+        }
+        heap[slot] = node;
+        position[node] = slot;
+    }
+
+    private void siftDown(int slot) {
+        int node = heap[slot];
+        int half = size >>> 1;
+        while (slot < half) {
+            int child = 2 * slot + 1;
+            int right = child + 1;
+            if (right < size && less(heap[right], heap[child])) child = right;
+            if (!less(heap[child], node)) break;
+            heap[slot] = heap[child];
+            position[heap[slot]] = slot;
+            slot = child;
+        }
+        heap[slot] = node;
+        position[node] = slot;
+    }
+}
@@ -0,0 +1,153 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Jump Point Search over the same 8-connected, unit-cost grid as GridSearch.
+ *
+ * Instead of pushing every neighbour, each expansion scans ahead in the directions that
+ * survive symmetry pruning and only queues the cells where the scan has to stop: a cell next
+ * to the townhall, a cell with a forced neighbour (an obstacle beside the scan line opens a
+ * route that cannot be reached more cheaply another way), or a diagonal step whose straight
+ * sub-scans stop. Runs of open ground are therefore crossed without touching the open list.
+ * The jump points are expanded back into single steps, so the returned path has the same
+ * format as GridSearch.search.
+ */
+class JumpPointSearch extends GridSearch {
+
+    private ObstacleMap obstacles;
+    private int enemy;
+    private int goalX, goalY;
+
+    JumpPointSearch(int width, int height) {
+        super(width, height);
+    }
+
+    @Override
+    int[] search(int start, int goal, ObstacleMap obstacles, int enemy) {
+        this.obstacles = obstacles;
+        this.enemy = enemy;
+        this.goalX = goal % width;
+        this.goalY = goal / width;
+        beginSearch();
+        heuristic.setGoal(goal);
+
+        visit(start, 0, -1);
+        float startH = heuristic.estimate(start);
+        open.update(start, startH, startH);
+        stats.onPush(open.size());
+
+        while (!open.isEmpty()) {
+            int current = open.poll();
+            closed[current] = searchId;
+            stats.expanded++;
+            int cx = current % width, cy = current / width;
+            if (isAdjacent(cx, cy, goalX, goalY)) return reconstruct(current);
+
+            if (parent[current] == -1) {
+                for (int d = 0; d < 8; d++) {
+                    jumpFrom(current, cx, cy, DX[d], DY[d]);
+                }
+                continue;
+            }
+            int dx = Integer.signum(cx - parent[current] % width);
+            int dy = Integer.signum(cy - parent[current] / width);
+            if (dx != 0 && dy != 0) {
+                // diagonal: the two straight components and the diagonal itself are natural
+                jumpFrom(current, cx, cy, dx, 0);
+                jumpFrom(current, cx, cy, 0, dy);
+                jumpFrom(current, cx, cy, dx, dy);
+                if (!passable(cx - dx, cy) && passable(cx - dx, cy + dy)) jumpFrom(current, cx, cy, -dx, dy);
+                if (!passable(cx, cy - dy) && passable(cx + dx, cy - dy)) jumpFrom(current, cx, cy, dx, -dy);
+            } else if (dx != 0) {
+                jumpFrom(current, cx, cy, dx, 0);
+                if (!passable(cx, cy + 1) && passable(cx + dx, cy + 1)) jumpFrom(current, cx, cy, dx, 1);
+                if (!passable(cx, cy - 1) && passable(cx + dx, cy - 1)) jumpFrom(current, cx, cy, dx, -1);
+            } else {
+                jumpFrom(current, cx, cy, 0, dy);
+                if (!passable(cx + 1, cy) && passable(cx + 1, cy + dy)) jumpFrom(current, cx, cy, 1, dy);
+                if (!passable(cx - 1, cy) && passable(cx - 1, cy + dy)) jumpFrom(current, cx, cy, -1, dy);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Scans from (x, y) in direction (dx, dy) and queues the jump point it finds, if any.
+     */
+    private void jumpFrom(int current, int x, int y, int dx, int dy) {
+        int next = jump(x, y, dx, dy);
+        if (next == -1) return;
+        if (closed[next] == searchId) {
+            stats.closedSkips++;
+            return;
+        }
+        int nx = next % width, ny = next / width;
+        float nextCost = gScore[current] + Math.max(Math.abs(nx - x), Math.abs(ny - y));
+        if (seen[next] != searchId || nextCost < gScore[next]) {
+            visit(next, nextCost, current);
+            float h = heuristic.estimate(next);
+            open.update(next, nextCost + h, h);
+            stats.onPush(open.size());
+        }
+    }
+
+    /**
+     * @return the index of the first jump point reached from (x, y) in direction (dx, dy), or -1
+     * if the scan runs into an obstacle or the edge of the map
+     */
+    private int jump(int x, int y, int dx, int dy) {
+        while (true) {
+            x += dx;
+            y += dy;
+            if (!passable(x, y)) return -1;
+            if (isAdjacent(x, y, goalX, goalY)) return index(x, y);
+            if (dx != 0 && dy != 0) {
+                if ((!passable(x - dx, y) && passable(x - dx, y + dy))
+                        || (!passable(x, y - dy) && passable(x + dx, y - dy))) {
+                    return index(x, y);
+                }
+                if (jump(x, y, dx, 0) != -1 || jump(x, y, 0, dy) != -1) return index(x, y);
+            } else if (dx != 0) {
+                if ((!passable(x, y + 1) && passable(x + dx, y + 1))
+                        || (!passable(x, y - 1) && passable(x + dx, y - 1))) {
+                    return index(x, y);
+                }
+            } else {
+                if ((!passable(x + 1, y) && passable(x + 1, y + dy))
+                        || (!passable(x - 1, y) && passable(x - 1, y + dy))) {
+                    return index(x, y);
+                }
+            }
+        }
+    }
+
+    private boolean passable(int x, int y) {
+        if (!inBounds(x, y)) return false;
+        int cell = index(x, y);
+        return cell != enemy && !obstacles.isBlocked(cell);
+    }
+
+    /**
+     * Expands the chain of jump points into single steps. The start cell is not included.
+     */
+    @Override
+    int[] reconstruct(int last) {
+        int length = 0;
+        for (int node = last; parent[node] != -1; node = parent[node]) {
+            int from = parent[node];
+            length += Math.max(Math.abs(node % width - from % width), Math.abs(node / width - from / width));
+        }
+        int[] cells = new int[length];
+        int i = length - 1;
+        for (int node = last; parent[node] != -1; node = parent[node]) {
+            int from = parent[node];
+            int x = node % width, y = node / width;
+            int dx = Integer.signum(from % width - x), dy = Integer.signum(from / width - y);
+            for (int cell = node; cell != from; cell = index(x, y)) {
+                cells[i--] = cell;
+                x += dx;
+                y += dy;
+            }
+        }
+        return cells;
+    }
+}
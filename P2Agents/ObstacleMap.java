@@ -0,0 +1,45 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Immutable bitmap of the cells occupied by static obstacles (trees), one bit per cell at
+ * index y * width + x. It is built once per episode and shared by every search, so testing
+ * a neighbour is a single shift-and-mask instead of hashing a MapLocation. Units that move,
+ * such as the enemy footman, are not part of the map; searches apply them as an overlay.
+ */
+final class ObstacleMap {
+
+    final int width;
+    final int height;
+    private final long[] words;
+    // hash of the dimensions and every obstacle bit, identifies the layout across episodes
+    final long fingerprint;
+
+    /**
+     * @param xs x coordinates of the obstacles
+     * @param ys y coordinates of the obstacles, parallel to xs
+     */
+    ObstacleMap(int width, int height, int[] xs, int[] ys) {
+        this.width = width;
+        this.height = height;
+        this.words = new long[(width * height + 63) >>> 6];
+        for (int i = 0; i < xs.length; i++) {
+            int cell = ys[i] * width + xs[i];
+            words[cell >>> 6] |= 1L << cell;
+        }
+
+        long hash = 31L * width + height;
+        for (long word : words) {
+            hash = hash * 0x9E3779B97F4A7C15L + word;
+            hash ^= hash >>> 29;
+        }
+        fingerprint = hash;
+    }
+
+    boolean isBlocked(int cell) {
+        return (words[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    boolean isBlocked(int x, int y) {
+        return isBlocked(y * width + x);
+    }
+}
@@ -0,0 +1,148 @@
+package edu.cwru.sepia.agent;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of planned paths. A path is keyed by the start cell, the townhall cell,
+ * the enemy footman's cell, the fingerprint of the tree layout and the heuristic it was planned
+ * with, so a plan is only reused when the whole search input is the same. The heuristic matters
+ * because OCTILE is inadmissible: its paths must not be served to a run that expects optimal ones. Batch evaluation replays the same maps many times,
+ * and this turns the first plan of a repeated scenario into a lookup.
+ *
+ * The cache can be written to and read back from a stream, which AstarAgent uses for its
+ * player data.
+ */
+final class PathCache {
+
+    // bumped whenever the stream layout changes, so stale files are ignored rather than misread
+    private static final int FORMAT_VERSION = 2;
+
+    private static final class Key {
+        final long layout;
+        final int start;
+        final int goal;
+        final int enemy;
+        final AstarAgent.Heuristic heuristic;
+
+        Key(long layout, int start, int goal, int enemy, AstarAgent.Heuristic heuristic) {
+            this.layout = layout;
+            this.start = start;
+            this.goal = goal;
+            this.enemy = enemy;
+            this.heuristic = heuristic;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return layout == key.layout && start == key.start && goal == key.goal && enemy == key.enemy
+                    && heuristic == key.heuristic;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(layout);
+            result = 31 * result + start;
+            result = 31 * result + goal;
+            result = 31 * result + enemy;
+            result = 31 * result + heuristic.hashCode();
+            return result;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Key, int[]> paths;
+    private int hits;
+    private int misses;
+
+    PathCache(int capacity) {
+        this.capacity = capacity;
+        this.paths = new LinkedHashMap<Key, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+                return size() > PathCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cached path cells, or null on a miss
+     */
+    int[] get(ObstacleMap obstacles, int start, int goal, int enemy, AstarAgent.Heuristic heuristic) {
+        int[] cells = paths.get(new Key(obstacles.fingerprint, start, goal, enemy, heuristic));
+        if (cells == null) misses++;
+        else hits++;
+        return cells;
+    }
+
+    /**
+     * Caches a found path. Searches that found no path are not cached.
+     */
+    void put(ObstacleMap obstacles, int start, int goal, int enemy, AstarAgent.Heuristic heuristic, int[] cells) {
+        if (cells != null) paths.put(new Key(obstacles.fingerprint, start, goal, enemy, heuristic), cells);
+    }
+
+    int getHits() {
+        return hits;
+    }
+
+    int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Writes the entries from least to most recently used, so loading them back keeps the order.
+     * The stream is flushed but not closed.
+     */
+    void save(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(paths.size());
+        for (Map.Entry<Key, int[]> entry : paths.entrySet()) {
+            Key key = entry.getKey();
+            out.writeLong(key.layout);
+            out.writeInt(key.start);
+            out.writeInt(key.goal);
+            out.writeInt(key.enemy);
+            // by name, so reordering the enum does not remap saved entries
+            out.writeUTF(key.heuristic.name());
+            out.writeInt(entry.getValue().length);
+            for (int cell : entry.getValue()) out.writeInt(cell);
+        }
+        out.flush();
+    }
+
+    /**
+     * Adds the entries written by save. Data from another format version is skipped, and so are
+     * entries for a heuristic this agent no longer has. The stream is not closed.
+     */
+    void load(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != FORMAT_VERSION) return;
+        int entries = in.readInt();
+        for (int i = 0; i < entries; i++) {
+            long layout = in.readLong();
+            int start = in.readInt(), goal = in.readInt(), enemy = in.readInt();
+            AstarAgent.Heuristic heuristic = heuristicNamed(in.readUTF());
+            int[] cells = new int[in.readInt()];
+            for (int c = 0; c < cells.length; c++) cells[c] = in.readInt();
+            if (heuristic != null) paths.put(new Key(layout, start, goal, enemy, heuristic), cells);
+        }
+    }
+
+    // the heuristic saved under name, or null if there is none
+    private static AstarAgent.Heuristic heuristicNamed(String name) {
+        for (AstarAgent.Heuristic heuristic : AstarAgent.Heuristic.values()) {
+            if (heuristic.name().equals(name)) return heuristic;
+        }
+        return null;
+    }
+}
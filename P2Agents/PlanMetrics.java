@@ -0,0 +1,110 @@
+package edu.cwru.sepia.agent;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Per-episode planning metrics for AstarAgent. Every plan that is used, HPA* segment refinement and
+ * TBA* slice is recorded into one histogram per measurement, so tail latency and tail search effort can be read off at the end
+ * of the episode instead of only the total planning time. Background plans thrown away as stale are only counted.
+ */
+final class PlanMetrics {
+
+    private static final String[] NAMES = {
+            "plan_nanos", "nodes_expanded", "nodes_generated", "open_peak", "closed_skips", "path_length"
+    };
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final LogLinearHistogram[] histograms = new LogLinearHistogram[NAMES.length];
+    // background plans thrown away as stale, which are not in the histograms
+    private long discards;
+
+    PlanMetrics() {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new LogLinearHistogram();
+    }
+
+    /**
+     * @param nanos wall-clock time of the plan
+     * @param stats counters of the search that produced the plan
+     * @param pathLength number of steps in the plan
+     */
+    void record(long nanos, SearchStats stats, int pathLength) {
+        histograms[0].record(nanos);
+        histograms[1].record(stats.expanded);
+        histograms[2].record(stats.generated);
+        histograms[3].record(stats.openPeak);
+        histograms[4].record(stats.closedSkips);
+        histograms[5].record(pathLength);
+    }
+
+    void recordDiscard() {
+        discards++;
+    }
+
+    long getDiscards() {
+        return discards;
+    }
+
+    long getCount() {
+        return histograms[0].getCount();
+    }
+
+    /**
+     * @return a one-line summary of the plan latency, in seconds like the other totals
+     */
+    String latencySummary() {
+        LogLinearHistogram nanos = histograms[0];
+        return String.format(Locale.ROOT, "Plans: %d, discarded: %d, latency p50: %.6f, p99: %.6f, max: %.6f",
+                nanos.getCount(), discards, nanos.getValueAtPercentile(50) / 1e9,
+                nanos.getValueAtPercentile(99) / 1e9, nanos.getMax() / 1e9);
+    }
+
+    String toCsv() {
+        StringBuilder csv = new StringBuilder("metric,count,min,mean");
+        for (double p : PERCENTILES) csv.append(",p").append(label(p));
+        csv.append(",max\n");
+        for (int i = 0; i < NAMES.length; i++) {
+            LogLinearHistogram h = histograms[i];
+            csv.append(NAMES[i]).append(',').append(h.getCount()).append(',').append(h.getMin())
+                    .append(',').append(format(h.getMean()));
+            for (double p : PERCENTILES) csv.append(',').append(h.getValueAtPercentile(p));
+            csv.append(',').append(h.getMax()).append('\n');
+        }
+        return csv.toString();
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < NAMES.length; i++) {
+            LogLinearHistogram h = histograms[i];
+            if (i > 0) json.append(',');
+            json.append("\n  \"").append(NAMES[i]).append("\": {\"count\": ").append(h.getCount())
+                    .append(", \"min\": ").append(h.getMin())
+                    .append(", \"mean\": ").append(format(h.getMean()));
+            for (double p : PERCENTILES) {
+                json.append(", \"p").append(label(p)).append("\": ").append(h.getValueAtPercentile(p));
+            }
+            json.append(", \"max\": ").append(h.getMax()).append('}');
+        }
+        return json.append("\n}\n").toString();
+    }
+
+    /**
+     * Writes the histograms to the given file, as JSON if the name ends in .json and as CSV otherwise.
+     */
+    void write(String fileName) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName))) {
+            out.print(fileName.endsWith(".json") ? toJson() : toCsv());
+        }
+    }
+
+    private static String label(double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : String.format(Locale.ROOT, "%.3f", value);
+    }
+}
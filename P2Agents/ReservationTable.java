@@ -0,0 +1,77 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Space-time reservation table for cooperative pathfinding. It records which unit occupies each
+ * cell at each turn of the current planning window, turn 0 being the turn the plans start.
+ *
+ * The table is a flat array over (turn, cell) sized to the map and the window. Entries are
+ * stamped with the planning round that wrote them, so starting a new round is O(1) instead of a
+ * clear over window * cells entries.
+ */
+final class ReservationTable {
+
+    private static final int FREE = -1;
+
+    final int cells;
+    final int window;
+    // owner[turn * cells + cell] is valid where round[...] equals the current round
+    private final int[] owner;
+    private final int[] round;
+    private int currentRound;
+
+    /**
+     * @param window the last turn that can be reserved
+     */
+    ReservationTable(int width, int height, int window) {
+        this.cells = width * height;
+        this.window = window;
+        owner = new int[(window + 1) * cells];
+        round = new int[(window + 1) * cells];
+    }
+
+    /**
+     * Drops every reservation.
+     */
+    void clear() {
+        if (++currentRound == Integer.MAX_VALUE) {
+            Arrays.fill(round, 0);
+            currentRound = 1;
+        }
+    }
+
+    void reserve(int cell, int turn, int unit) {
+        int slot = turn * cells + cell;
+        round[slot] = currentRound;
+        owner[slot] = unit;
+    }
+
+    /**
+     * Reserves cell for unit from turn to the end of the window, for a unit that stays put.
+     */
+    void reserveFrom(int cell, int turn, int unit) {
+        for (int t = turn; t <= window; t++) reserve(cell, t, unit);
+    }
+
+    /**
+     * @return the unit holding cell at turn, or -1 if it is free
+     */
+    int ownerAt(int cell, int turn) {
+        int slot = turn * cells + cell;
+        return round[slot] == currentRound ? owner[slot] : FREE;
+    }
+
+    /**
+     * @return true if unit may move from one cell to another between turn and turn + 1: the
+     * target is not held by another unit at turn + 1, and no other unit makes the opposite move,
+     * which would have the two swap places through each other
+     */
+    boolean canMove(int unit, int from, int to, int turn) {
+        int target = ownerAt(to, turn + 1);
+        if (target != FREE && target != unit) return false;
+        if (from == to) return true;
+        int oncoming = ownerAt(from, turn + 1);
+        return oncoming == FREE || oncoming == unit || ownerAt(to, turn) != oncoming;
+    }
+}
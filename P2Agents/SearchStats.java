@@ -0,0 +1,41 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Work counters for the most recent search of a planner. Each planner owns one instance and
+ * resets it at the start of every search, so reading it never allocates.
+ */
+final class SearchStats {
+
+    // nodes taken off the open list (or BFS queue)
+    int expanded;
+    // nodes pushed onto the open list, including decrease-key updates
+    int generated;
+    // largest size the open list reached
+    int openPeak;
+    // neighbours dropped because they were already closed
+    int closedSkips;
+
+    void reset() {
+        expanded = 0;
+        generated = 0;
+        openPeak = 0;
+        closedSkips = 0;
+    }
+
+    /**
+     * @return a snapshot of the counters, for keeping them past the planner's next search
+     */
+    SearchStats copy() {
+        SearchStats copy = new SearchStats();
+        copy.expanded = expanded;
+        copy.generated = generated;
+        copy.openPeak = openPeak;
+        copy.closedSkips = closedSkips;
+        return copy;
+    }
+
+    void onPush(int openSize) {
+        generated++;
+        if (openSize > openPeak) openPeak = openSize;
+    }
+}
@@ -0,0 +1,169 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Time-bounded A* (TBA*) for streaming path execution.
+ *
+ * The search is rooted at the footman's cell when the plan starts and keeps its open list and
+ * search tree between turns. Each turn it expands nodes until the per-turn budget runs out,
+ * then commits to the best node found so far: the goal if it has been reached, otherwise the
+ * open node with the lowest f. The footman only ever walks along edges of the search tree, so
+ * it always stands on a tree node, and the steps to the current target are found by going up
+ * to the lowest common ancestor and back down. The footman can therefore start moving on the
+ * first turn while the search keeps refining the route on later turns.
+ */
+class TimeBoundedSearch extends GridSearch {
+
+    // how many expansions run between clock reads
+    private static final int CLOCK_INTERVAL = 32;
+
+    private ObstacleMap obstacles;
+    private int enemy;
+    private int goalX, goalY;
+    private int found;
+    private boolean active;
+
+    // marks the ancestors of the current target when looking for the common ancestor
+    private final int[] marked;
+    private int markId;
+
+    TimeBoundedSearch(int width, int height) {
+        super(width, height);
+        marked = new int[width * height];
+    }
+
+    /**
+     * A single-call search with no time limit, for callers that want a complete path.
+     */
+    @Override
+    int[] search(int start, int goal, ObstacleMap obstacles, int enemy) {
+        begin(start, goal, obstacles, enemy);
+        return step(Long.MAX_VALUE, start);
+    }
+
+    /**
+     * Roots a new search at start. Nothing is expanded until step is called.
+     */
+    void begin(int start, int goal, ObstacleMap obstacles, int enemy) {
+        this.obstacles = obstacles;
+        this.enemy = enemy;
+        this.goalX = goal % width;
+        this.goalY = goal / width;
+        beginSearch();
+        heuristic.setGoal(goal);
+        found = -1;
+        active = true;
+
+        visit(start, 0, -1);
+        float startH = heuristic.estimate(start);
+        open.update(start, startH, startH);
+        stats.onPush(open.size());
+    }
+
+    /**
+     * @return true once the goal has been reached (or shown unreachable), after which step
+     * returns the final path and does no more work
+     */
+    boolean isComplete() {
+        return !active || found != -1;
+    }
+
+    /**
+     * Abandons the current search, for when the plan comes from somewhere else.
+     */
+    void cancel() {
+        active = false;
+    }
+
+    /**
+     * @return true if position lies on the current search tree, so step can route from it
+     */
+    boolean contains(int position) {
+        return active && seen[position] == searchId;
+    }
+
+    /**
+     * Expands nodes for at most budgetNanos and returns the steps from position to the best node
+     * found so far.
+     *
+     * @param position the footman's cell, which must be on the search tree
+     * @return the steps from position to the goal or the most promising open node, or null if
+     * the goal is unreachable
+     */
+    int[] step(long budgetNanos, int position) {
+        long deadline = budgetNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + budgetNanos;
+        int sinceClock = 0;
+        while (found == -1 && !open.isEmpty()) {
+            if (++sinceClock == CLOCK_INTERVAL) {
+                sinceClock = 0;
+                if (System.nanoTime() >= deadline) break;
+            }
+            expandNext();
+        }
+        if (found == -1 && open.isEmpty()) {
+            active = false;
+            return null;
+        }
+        return route(position, found != -1 ? found : open.peek());
+    }
+
+    private void expandNext() {
+        int current = open.poll();
+        closed[current] = searchId;
+        stats.expanded++;
+        int cx = current % width, cy = current / width;
+        if (isAdjacent(cx, cy, goalX, goalY)) {
+            found = current;
+            return;
+        }
+
+        float stepCost = gScore[current] + 1;
+        for (int d = 0; d < 8; d++) {
+            int nx = cx + DX[d], ny = cy + DY[d];
+            if (!inBounds(nx, ny)) continue;
+            int next = index(nx, ny);
+            if (next == enemy || obstacles.isBlocked(next)) continue;
+            if (closed[next] == searchId) {
+                stats.closedSkips++;
+                continue;
+            }
+            float nextCost = forecast == null ? stepCost : stepCost + forecast.penalty(next);
+            if (seen[next] != searchId || nextCost < gScore[next]) {
+                visit(next, nextCost, current);
+                float h = heuristic.estimate(next);
+                open.update(next, nextCost + h, h);
+                stats.onPush(open.size());
+            }
+        }
+    }
+
+    /**
+     * Steps along the search tree from position up to the lowest common ancestor with target
+     * and then down to target. Neither position nor target moves in the tree while this runs.
+     */
+    private int[] route(int position, int target) {
+        if (++markId == Integer.MAX_VALUE) {
+            java.util.Arrays.fill(marked, 0);
+            markId = 1;
+        }
+        int down = 0;
+        for (int node = target; node != -1; node = parent[node]) {
+            marked[node] = markId;
+            down++;
+        }
+        int up = 0;
+        int ancestor = position;
+        while (marked[ancestor] != markId) {
+            ancestor = parent[ancestor];
+            up++;
+        }
+        // down counted every node from target to the root; keep only those below the ancestor
+        for (int node = ancestor; node != -1; node = parent[node]) down--;
+
+        int[] cells = new int[up + down];
+        int i = 0;
+        for (int node = parent[position]; i < up; node = parent[node]) cells[i++] = node;
+        i = cells.length - 1;
+        for (int node = target; node != ancestor; node = parent[node]) cells[i--] = node;
+        return cells;
+    }
+}
@@ -10,7 +10,6 @@ import edu.cwru.sepia.util.Direction;
 import edu.cwru.sepia.environment.model.state.ResourceNode;
 
 import java.util.*;
-import java.util.stream.Collectors;
 /**
  * This class stores all of the information the agent
  * needs to know about the state of the game. For example this
@@ -18,9 +17,14 @@ import java.util.stream.Collectors;
  *
  * Add any information or methods you would like to this class,
  * but do not delete or change the signatures of the provided methods.
+ *
+ * The units are kept packed, one long per unit holding its position and HP, so copying a state
+ * copies a few longs. What does not change during a search, the map and each unit's ID, range,
+ * base HP and damage, is kept once in a Board shared by every state searched from one turn.
+ * Moves are ints (see getMoves) and only become SEPIA Actions in toActionMap.
  */
 public class GameState {
- 
+
      // an inner class represent a simulate unit
      class SimUnit {
         int ID;
@@ -50,20 +54,16 @@ public class GameState {
             baseHP = unit.baseHP;
             damage = unit.damage;
         }
-
-        
-        // move by xOffset and yOffset
-         public void move(int xOffset, int yOffset) {
-            this.x += xOffset;
-            this.y += yOffset;
-        }
-        // perform an attack on target
-        public void attack(SimUnit target){
-            target.loseHPBy(this.damage);
-        }
-        // is targeted by an attack and lose some amount of health
-        public void loseHPBy(int amount) {
-            this.HP -= amount;
+        // Create a view of the unit in a slot of this state
+        SimUnit(int slot) {
+            long unit = units[slot];
+            ID = board.ids[slot];
+            x = x(unit);
+            y = y(unit);
+            HP = hp(unit);
+            range = board.ranges[slot];
+            baseHP = board.baseHPs[slot];
+            damage = board.damages[slot];
         }
 
         @Override
@@ -85,9 +85,9 @@ public class GameState {
        int y;
        public MapLocation(int x, int y) {
          this.x = x;
-         this.y = y; 
+         this.y = y;
        }
-       
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -100,18 +100,92 @@ public class GameState {
         public int hashCode() {
             return Objects.hash(x, y);
         }
-     }  
-    private State.StateView state;
-    private List<SimUnit> player0Units;
-    private List<SimUnit> player1Units;
-    private int xMax;
-    private int yMax;
+     }
+
+    /**
+     * What stays the same while a turn is searched. Units are numbered by slot, player 0's
+     * first, and keep their slot when they die.
+     */
+    private static final class Board {
+        final int xMax;
+        final int yMax;
+        final int[] ids;
+        final int[] ranges;
+        final int[] baseHPs;
+        final int[] damages;
+        // the slots below this one hold player 0's units
+        final int footmen;
+        // the obstacle cells, as bit y * xMax + x
+        final long[] obstacles;
+        //the locations of the obstacles, unmodifiable
+        final Set<MapLocation> resourcesLocation;
+        // footman steps between cells around the obstacles, or null on a map too large for them
+        final PathDistances distances;
+
+        Board(List<Unit.UnitView> units, int footmen, int xMax, int yMax, long[] obstacles, Set<MapLocation> resourcesLocation) {
+            if (units.size() > MAX_UNITS) {
+                throw new IllegalArgumentException("at most " + MAX_UNITS + " units can be searched, not " + units.size());
+            }
+            this.xMax = xMax;
+            this.yMax = yMax;
+            this.footmen = footmen;
+            this.obstacles = obstacles;
+            this.resourcesLocation = resourcesLocation;
+            distances = PathDistances.of(xMax, yMax, obstacles);
+            ids = new int[units.size()];
+            ranges = new int[units.size()];
+            baseHPs = new int[units.size()];
+            damages = new int[units.size()];
+            for (int slot = 0; slot < units.size(); slot++) {
+                Unit.UnitView unit = units.get(slot);
+                ids[slot] = unit.getID();
+                ranges[slot] = unit.getTemplateView().getRange();
+                baseHPs[slot] = unit.getTemplateView().getBaseHealth();
+                damages[slot] = unit.getTemplateView().getBasicAttack();
+            }
+        }
+
+        boolean isObstacle(int x, int y) {
+            int cell = y * xMax + x;
+            return (obstacles[cell >> 6] & 1L << cell) != 0;
+        }
+    }
+
+    // unit slots fit in the 4 bits an action has for each
+    private static final int MAX_UNITS = 16;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // A move is an int: the number of actions in it shifted by MOVE_COUNT, and the actions in
+    // ACTION_BITS fields from bit 0, in the order they are made. An action holds the unit's slot
+    // in its low 4 bits, then either the ordinal of the direction it moves in or ATTACK and the
+    // slot of its target.
+    private static final int ACTION_BITS = 12;
+    private static final int ACTION_MASK = (1 << ACTION_BITS) - 1;
+    private static final int MOVE_COUNT = 2 * ACTION_BITS;
+    private static final int ATTACK = 1 << 7;
+    private static final int NO_ACTION = -1;
+    // no move is 0, since a move holds its number of actions
+    static final int NO_MOVE = 0;
+    // two units with at most four moves each
+    private static final int MAX_MOVES = 64;
+    private static final int[] NO_MOVES = new int[0];
+
+    private final Board board;
+    // each unit's x, y and HP by slot, packed by pack
+    private final long[] units;
     // is true if this is player 0 turn, false otherwise
     private boolean player0Turn;
-    // a map to keep track of the sim units
-    private Map<Integer, SimUnit> UnitIdMap = new HashMap<>();
-    //the locations of the obstacles
-    private Set<MapLocation> resourcesLocation = new HashSet<>();
+    // Zobrist key of the unit positions, HP and side to move, for the transposition table
+    private long zobristKey;
+
+    // the actions and turn passes applied and not yet undone: for an action the slot of the unit
+    // it changed and that unit before the change, for a turn pass PASSED_TURN and the number of
+    // actions in the move; and the Zobrist key before each one
+    private static final int PASSED_TURN = -1;
+    private int[] undoSlots = new int[16];
+    private long[] undoUnits = new long[16];
+    private long[] undoKeys = new long[16];
+    private int undoSize;
 
     /**
      * You will implement this constructor. It will
@@ -126,19 +200,19 @@ public class GameState {
      *
      * For a given ResourceView you can query the position using
      * resource.getXPosition() and resource.getYPosition()
-     * 
+     *
      * You can get a list of all the units belonging to a player with the following command:
      * state.getUnitIds(int playerNum): gives a list of all unit IDs beloning to the player.
      * You control player 0, the enemy controls player 1.
-     * 
+     *
      * In order to see information about a specific unit, you must first get the UnitView
      * corresponding to that unit.
      * state.getUnit(int id): gives the UnitView for a specific unit
-     * 
+     *
      * With a UnitView you can find information about a given unit
      * unitView.getXPosition() and unitView.getYPosition(): get the current location of this unit
      * unitView.getHP(): get the current health of this unit
-     * 
+     *
      * SEPIA stores information about unit types inside TemplateView objects.
      * For a given unit type you will need to find statistics from its Template View.
      * unitView.getTemplateView().getRange(): This gives you the attack range
@@ -148,127 +222,191 @@ public class GameState {
      * @param state Current state of the episode
      */
     public GameState(State.StateView state) {
-        this.state = state;
         player0Turn = true;
-        state.getUnits(0).forEach((unit) -> {
-            player0Units.add(new SimUnit(unit));
-        });
-
-        state.getUnits(1).forEach((unit) -> {
-            player1Units.add(new SimUnit(unit));
-        });
-
-        this.xMax = state.getXExtent();
-        this.yMax = state.getYExtent();
-        
-        state.getUnits(0).forEach((unit) -> {
-            UnitIdMap.put(unit.getID(), new SimUnit(unit));
-        });
-
-        state.getUnits(1).forEach((unit) -> {
-            UnitIdMap.put(unit.getID(), new SimUnit(unit));
-        });
-        List<ResourceNode.ResourceView> resources = state.getAllResourceNodes();
-        for(ResourceNode.ResourceView resource: resources) {
-            MapLocation eachResource = new MapLocation(resource.getXPosition(), resource.getYPosition());
-            resourcesLocation.add(eachResource);
+        List<Unit.UnitView> unitViews = new ArrayList<>(state.getUnits(0));
+        int footmen = unitViews.size();
+        unitViews.addAll(state.getUnits(1));
+
+        int xMax = state.getXExtent();
+        int yMax = state.getYExtent();
+        long[] obstacles = new long[(xMax * yMax + 63) >> 6];
+        Set<MapLocation> resources = new HashSet<>();
+        for(ResourceNode.ResourceView resource: state.getAllResourceNodes()) {
+            int cell = resource.getYPosition() * xMax + resource.getXPosition();
+            obstacles[cell >> 6] |= 1L << cell;
+            resources.add(new MapLocation(resource.getXPosition(), resource.getYPosition()));
+        }
+        board = new Board(unitViews, footmen, xMax, yMax, obstacles, Collections.unmodifiableSet(resources));
+
+        units = new long[unitViews.size()];
+        for (int slot = 0; slot < units.length; slot++) {
+            Unit.UnitView unit = unitViews.get(slot);
+            units[slot] = pack(unit.getXPosition(), unit.getYPosition(), unit.getHP());
+            zobristKey ^= unitKey(slot);
         }
     }
-    
+
+    /**
+     * Copies the units of a game state. The board is shared, and the copy starts with an
+     * empty undo log.
+     */
+    private GameState(GameState gameState) {
+        this.board = gameState.board;
+        this.units = gameState.units.clone();
+        this.player0Turn = gameState.player0Turn;
+        this.zobristKey = gameState.zobristKey;
+    }
+
       /**
      * Generate a new game state given the previous game state and the action taken
      * @param gameState Current state of the episode
      * @param action Action taken
-     */ 
+     */
     public GameState(GameState gameState, Action action, boolean changeTurn) {
-        this.state = gameState.state;
-        this.xMax = gameState.state.getXExtent();
-        this.yMax = gameState.state.getYExtent();
-        for (SimUnit footman : gameState.getPlayer0Units()) {
-            this.player0Units.add(footman);
+        this(gameState);
+        applyAction(toCode(action));
+        if (changeTurn) {
+            player0Turn = !player0Turn;
+            zobristKey ^= Zobrist.ARCHERS_TO_MOVE;
         }
-        for (SimUnit archer : gameState.getPlayer1Units()) {
-            this.player1Units.add(archer);
+        undoSize = 0;
+    }
+
+    /**
+     * @return a copy of this state that can be searched independently
+     */
+    public GameState copy() {
+        return new GameState(this);
+    }
+
+    /**
+     * Applies one action of a move in place. It can be taken back with undoAction.
+     */
+    private void applyAction(int action) {
+        int slot = changedSlot(action);
+        pushUndo(slot, units[slot]);
+        zobristKey ^= unitKey(slot);
+        units[slot] = afterAction(action);
+        zobristKey ^= unitKey(slot);
+    }
+
+    /**
+     * Takes back the last action applied with applyAction.
+     */
+    private void undoAction() {
+        undoSize--;
+        units[undoSlots[undoSize]] = undoUnits[undoSize];
+        zobristKey = undoKeys[undoSize];
+    }
+
+    /**
+     * @return the slot of the unit an action changes: the target of an attack, or the unit that moves
+     */
+    private static int changedSlot(int action) {
+        return isAttack(action) ? actionTarget(action) : actionUnit(action);
+    }
+
+    /**
+     * @return the unit in changedSlot(action) once the action is made
+     */
+    private long afterAction(int action) {
+        int slot = changedSlot(action);
+        long unit = units[slot];
+        if (isAttack(action)) {
+            return pack(x(unit), y(unit), hp(unit) - board.damages[actionUnit(action)]);
         }
-        for (MapLocation location : gameState.getResourcesLocation()) {
-            this.resourcesLocation.add(location);
+        Direction direction = DIRECTIONS[actionDirection(action)];
+        return pack(x(unit) + direction.xComponent(), y(unit) + direction.yComponent(), hp(unit));
+    }
+
+    /**
+     * Applies a move from getMoves and passes the turn. It can be taken back with undoMove.
+     */
+    public void applyMove(int move) {
+        int actions = actionCount(move);
+        for (int k = 0; k < actions; k++) {
+            applyAction(action(move, k));
         }
-        if (changeTurn)player0Turn = !gameState.player0Turn;
-        else player0Turn = gameState.player0Turn;
-        ActionType type = action.getType();
-        int unitID = action.getUnitId();
-        // the simulate unit to apply the action
-        SimUnit unit = UnitIdMap.get(unitID);    
-                                     
-        if (type.equals(ActionType.PRIMITIVEATTACK)) {
-          TargetedAction attackAction = (TargetedAction)action;
-          int targetID = attackAction.getTargetId();
-          // the target of the attack
-          SimUnit target = UnitIdMap.get(targetID);  
-          
-          // apply the attack action
-          unit.attack(target);
-          
-          // if the target of the attack is a footman then update 
-//          for (SimUnit footman : playerOUnits) {
-//            if (footmen.ID == targetID) {
-//              play0Units.remove(footman);
-//              play0Units.add(target);
-//            }
-//          }
-//          
-//          // if the target of the attack is an archer then update 
-//          for (SimUnit archer : player1Units) {
-//            if (archer.ID == targetID) {
-//              play1Units.remove(archer);
-//              play1Units.add(target);
-//            }
-//          }                             
+        pushUndo(PASSED_TURN, actions);
+        player0Turn = !player0Turn;
+        zobristKey ^= Zobrist.ARCHERS_TO_MOVE;
+    }
+
+    /**
+     * Takes back the last move applied with applyMove.
+     */
+    public void undoMove() {
+        undoSize--;
+        int actions = (int) undoUnits[undoSize];
+        zobristKey = undoKeys[undoSize];
+        player0Turn = !player0Turn;
+        for (int i = 0; i < actions; i++) {
+            undoAction();
         }
-        
-        else if(type.equals(ActionType.PRIMITIVEMOVE)) {
-          Direction direction = ((DirectedAction)action).getDirection();
-          unit.move(direction.xComponent(), direction.yComponent());
-          // if the moving unit is a footman then update 
-//          for (SimUnit footman : playerOUnits) {
-//            if (footmen.ID == unitID) {
-//              play0Units.remove(footman);
-//              play0Units.add(unit);
-//            }
-//          }
-//          // if the moving unit is an archer then update 
-//          for (SimUnit archer : player1Units) {
-//            if (archer.ID == unitID) {
-//              play1Units.remove(archer);
-//              play1Units.add(unit);
-//            }
-//          }
+    }
+
+    /**
+     * Adds an undo record, saving the current Zobrist key with it.
+     */
+    private void pushUndo(int slot, long unit) {
+        if (undoSize == undoKeys.length) {
+            undoSlots = Arrays.copyOf(undoSlots, undoSize * 2);
+            undoUnits = Arrays.copyOf(undoUnits, undoSize * 2);
+            undoKeys = Arrays.copyOf(undoKeys, undoSize * 2);
         }
-        // Remove units that are death from the units lists
-        this.player0Units = player0Units.stream().filter(footman -> footman.HP > 0).collect(Collectors.toList());
-        this.player1Units = player1Units.stream().filter(archer -> archer.HP > 0).collect(Collectors.toList());
+        undoSlots[undoSize] = slot;
+        undoUnits[undoSize] = unit;
+        undoKeys[undoSize] = zobristKey;
+        undoSize++;
     }
 
-    public List<MapLocation> getResourcesLocation() {
-      List<MapLocation> locationList = new LinkedList<>();
-      for (MapLocation location : this.resourcesLocation) {
-        locationList.add(location);
-      }
-      return locationList;
+    /**
+     * @return the Zobrist key of this state; equal states reached by different moves have equal keys
+     */
+    public long getZobristKey() {
+        return zobristKey;
+    }
+
+    private long unitKey(int slot) {
+        long unit = units[slot];
+        return Zobrist.unit(board.ids[slot], x(unit), y(unit), hp(unit));
+    }
+
+    // a unit's x and y in 16 bits each, then its HP, which goes below 0 when it dies
+    private static long pack(int x, int y, int hp) {
+        return (long) x << 48 | (long) (y & 0xFFFF) << 32 | (hp & 0xFFFFFFFFL);
+    }
+
+    private static int x(long unit) {
+        return (int) (unit >>> 48);
+    }
+
+    private static int y(long unit) {
+        return (int) (unit >>> 32) & 0xFFFF;
+    }
+
+    private static int hp(long unit) {
+        return (int) unit;
+    }
+
+    private boolean isAlive(int slot) {
+        return hp(units[slot]) > 0;
+    }
+
+    public Set<MapLocation> getResourcesLocation() {
+      return board.resourcesLocation;
     }
     public List<SimUnit> getPlayer0Units() {
       List<SimUnit> footmen = new LinkedList<>();
-      for (SimUnit footman : this.player0Units) {
-        SimUnit footmanCopy = new SimUnit(footman);
-        footmen.add(footmanCopy);
+      for (int slot = 0; slot < board.footmen; slot++) {
+        if (isAlive(slot)) footmen.add(new SimUnit(slot));
       }
       return footmen;
-    }    
+    }
     public List<SimUnit> getPlayer1Units() {
       List<SimUnit> archers = new LinkedList<>();
-      for (SimUnit archer : this.player1Units) {
-        SimUnit archerCopy = new SimUnit(archer);
-        archers.add(archerCopy);
+      for (int slot = board.footmen; slot < units.length; slot++) {
+        if (isAlive(slot)) archers.add(new SimUnit(slot));
       }
       return archers;
     }
@@ -288,7 +426,7 @@ public class GameState {
      * able to do less plys in a turn.
      *
      * Add a good comment about what is in your utility and why you chose those features.
-     * We use a combination of percentage health of the units and the distance between the footmen and the archers 
+     * We use a combination of percentage health of the units and the distance between the footmen and the archers
      * @return The weighted linear combination of the features
      */
     public double getUtility() {
@@ -302,11 +440,8 @@ public class GameState {
      */
     private double healthUtility() {
         double healthUtility = 0.0;
-        for(SimUnit footman : player0Units) {
-           healthUtility += (double)footman.HP/footman.baseHP;
-        }
-        for(SimUnit archer : player1Units) {
-           healthUtility -= (double)archer.HP/archer.baseHP;
+        for (int slot = 0; slot < units.length; slot++) {
+            healthUtility += healthTerm(slot);
         }
         return healthUtility;
     }
@@ -315,35 +450,58 @@ public class GameState {
      */
     private double distanceUtility() {
         double utility = 0.0;
-
-        for(SimUnit footman : player0Units) {
-            double distance = 0.0;
-            for(SimUnit archer : player1Units) {
-                distance = Math.sqrt(Math.pow(footman.x - archer.x, 2) + Math.pow(footman.y - archer.y, 2));
-            }
-            utility -= distance;
+        for (int footman = 0; footman < board.footmen; footman++) {
+            utility -= distanceTerm(footman);
         }
         return utility;
     }
+    /**
+     * The health feature of a unit: its percentage health, negative for an archer, 0 once it dies
+     */
+    private double healthTerm(int slot) {
+        if (!isAlive(slot)) return 0.0;
+        double health = (double)hp(units[slot])/board.baseHPs[slot];
+        return slot < board.footmen ? health : -health;
+    }
+    /**
+     * The distance feature of a footman: the steps it needs around the trees to reach the
+     * archers, or the straight-line distance where there are no step counts, 0 once it dies
+     */
+    private double distanceTerm(int footman) {
+        if (!isAlive(footman)) return 0.0;
+        // only the last living archer counts
+        for (int archer = units.length - 1; archer >= board.footmen; archer--) {
+            if (!isAlive(archer)) continue;
+            long from = units[footman];
+            long to = units[archer];
+            if (board.distances != null) {
+                int steps = board.distances.steps(x(from), y(from), x(to), y(to));
+                if (steps != PathDistances.UNREACHABLE) return steps;
+            }
+            int dx = x(from) - x(to);
+            int dy = y(from) - y(to);
+            return Math.sqrt(dx * dx + dy * dy);
+        }
+        return 0.0;
+    }
 
     // return true if all the footmen or archers die
     public boolean isTerminated() {
-        double totalArchersHealth = 0.0;
-        double totalFootmenHealth = 0.0;
-        for(SimUnit archer : player1Units) {
-            totalArchersHealth += (double)archer.HP;
-        }
-        for(SimUnit footman : player0Units) {
-            totalFootmenHealth += (double)footman.HP;
+        return !hasLivingUnit(0, board.footmen) || !hasLivingUnit(board.footmen, units.length);
+    }
+
+    private boolean hasLivingUnit(int fromSlot, int toSlot) {
+        for (int slot = fromSlot; slot < toSlot; slot++) {
+            if (isAlive(slot)) return true;
         }
-        return totalArchersHealth <= 0.0 || totalFootmenHealth <= 0.0;
+        return false;
     }
     /**
      * You will implement this function.
      *
      * This will return a list of GameStateChild objects. You will generate all of the possible
      * actions in a step and then determine the resulting game state from that action. These are your GameStateChildren.
-     * 
+     *
      * It may be useful to be able to create a SEPIA Action. In this assignment you will
      * deal with movement and attacking actions. There are static methods inside the Action
      * class that allow you to create basic actions:
@@ -359,194 +517,225 @@ public class GameState {
      * To get the resulting position from a move in that direction you can do the following
      * x += direction.xComponent()
      * y += direction.yComponent()
-     * 
+     *
      * If you wish to explicitly use a Direction you can use the Direction enum, for example
      * Direction.NORTH or Direction.NORTHEAST.
-     * 
+     *
      * You can check many of the properties of an Action directly:
      * action.getType(): returns the ActionType of the action
      * action.getUnitID(): returns the ID of the unit performing the Action
-     * 
+     *
      * ActionType is an enum containing different types of actions. The methods given above
      * create actions of type ActionType.PRIMITIVEATTACK and ActionType.PRIMITIVEMOVE.
-     * 
+     *
      * For attack actions, you can check the unit that is being attacked. To do this, you
      * must cast the Action as a TargetedAction:
      * ((TargetedAction)action).getTargetID(): returns the ID of the unit being attacked
-     * 
+     *
      * @return All possible actions and their associated resulting game state
      */
-    
+
     public List<GameStateChild> getChildren() {
         //check if one player's all units dead -> end game
-        if (player0Units.size() <= 0 || player1Units.size() <= 0) {
+        if (isTerminated()) {
             return null;
         }
 
         List<GameStateChild> childNodes = new ArrayList<GameStateChild>();
-        Map<Integer, Action> actions = new HashMap<Integer, Action>();
-        int numArchers = player1Units.size();
-
-        //get IDs and UnitView of the first Footman and Archer
-        int firstFootmanID = player0Units.get(0).ID;
-        Unit.UnitView firstFootmanView = state.getUnit(firstFootmanID);
-        int secondFootmanID = -1;
-        Unit.UnitView secondFootmanView = null;
-        //get IDs and UnitView of the second Footman
-        if (player0Units.size() == 2) {
-            secondFootmanID = player0Units.get(1).ID;
-            secondFootmanView = state.getUnit(secondFootmanID);
+        for (int move : getMoves()) {
+            GameState childState = copy();
+            childState.applyMove(move);
+            childNodes.add(new GameStateChild(toActionMap(move), childState));
         }
+        return childNodes;
+    }
 
-        int firstArcherID = player1Units.get(0).ID;
-        Unit.UnitView firstArcherView = state.getUnit(firstArcherID);
-        int secondArcherID = -1;
-        Unit.UnitView secondArcherView = null;
-        if (player1Units.size() == 2) {
-            secondArcherID = player1Units.get(1).ID;
-            secondArcherView = state.getUnit(secondArcherID);
+    /**
+     * The moves of getChildren without the child states, to be searched with applyMove and
+     * undoMove. Each move holds the action of the first living unit of the side to move, then
+     * that of the second if there is one, found in the state after the first one's action.
+     * A unit in range attacks the same target whichever direction it could move in, so its
+     * attack is only added once and no two moves are the same.
+     *
+     * @return the moves in the same order as getChildren
+     */
+    public int[] getMoves() {
+        if (isTerminated()) {
+            return NO_MOVES;
+        }
+        int first = -1;
+        int second = -1;
+        for (int slot = player0Turn ? 0 : board.footmen; slot < (player0Turn ? board.footmen : units.length); slot++) {
+            if (!isAlive(slot)) continue;
+            if (first < 0) first = slot;
+            else if (second < 0) second = slot;
         }
 
-        //If it's our turn Footmen, find all possible actions and associated state
-        if (player0Turn) {
-            //actions and state of the first Footman
-            for (Direction direction1 : Direction.values()) {
-                Action footmanAct1 = footmanAct(direction1, firstFootmanID, firstFootmanView, player1Units);
-                GameState childState1 = null;
-                if (footmanAct1 != null) {
-                    //if there is only one Footman, create a child and add to list and continue consider other directions
-                    if (player0Units.size() <= 1) {
-                        actions.put(firstFootmanID, footmanAct1);
-                        childState1 = new GameState(this, footmanAct1, true);
-                        childNodes.add(new GameStateChild(actions, childState1));
-                        continue;
-                    }else childState1 = new GameState(this, footmanAct1, false);
-                }
-                
-                //actions and state of the second Footman if there are two Footmen
-                for (Direction direction2 : Direction.values()) {
-                    Map<Integer, Action> actionsBothFootman = new HashMap<Integer, Action>();
-                    Action footmanAct2 = footmanAct(direction2, secondFootmanID, secondFootmanView, player1Units);
-                    if (footmanAct2 != null) {
-                        GameState childStateBothFootman = new GameState(childState1, footmanAct2, true);
-                        actionsBothFootman.put(firstFootmanID, footmanAct1);
-                        actionsBothFootman.put(secondFootmanID, footmanAct2);
-                        childNodes.add(new GameStateChild(actionsBothFootman, childStateBothFootman));
-                    }
+        int[] moves = new int[MAX_MOVES];
+        int size = 0;
+        boolean firstAttacked = false;
+        for (int direction1 = 0; direction1 < DIRECTIONS.length; direction1++) {
+            int act1 = player0Turn ? footmanAct(direction1, first) : archerAct(direction1, first);
+            if (act1 == NO_ACTION || (isAttack(act1) && firstAttacked)) {
+                continue;
+            }
+            firstAttacked |= isAttack(act1);
+            //if there is only one unit, the move is its action alone
+            if (second < 0) {
+                moves[size++] = 1 << MOVE_COUNT | act1;
+                continue;
+            }
+            // the second unit's actions only depend on the positions and HP after the first's,
+            // so the first action is made on the unit alone, without an undo record
+            int changed = changedSlot(act1);
+            long saved = units[changed];
+            units[changed] = afterAction(act1);
+            boolean secondAttacked = false;
+            for (int direction2 = 0; direction2 < DIRECTIONS.length; direction2++) {
+                int act2 = player0Turn ? footmanAct(direction2, second) : archerAct(direction2, second);
+                if (act2 == NO_ACTION || (isAttack(act2) && secondAttacked)) {
+                    continue;
                 }
+                secondAttacked |= isAttack(act2);
+                moves[size++] = 2 << MOVE_COUNT | act2 << ACTION_BITS | act1;
             }
+            units[changed] = saved;
         }
+        return Arrays.copyOf(moves, size);
+    }
 
-        //if it's Archer's turn, find all possible actions and associated state
-        else {
-            for(Direction direction1 : Direction.values()) {
-                Action archerAct1 = archerAct(direction1, firstArcherID, firstArcherView, player0Units);
-                GameState childState1 = null;
-                if (archerAct1 != null) {
-                    //if there is only one Archer, create a child and add to list and continue consider other direction
-                    if (player0Units.size() <= 1) {
-                        actions.put(firstArcherID, archerAct1);
-                        childState1 = new GameState(this, archerAct1, true);
-                        childNodes.add(new GameStateChild(actions, childState1));
-                        continue;
-                    }else childState1 = new GameState(this, archerAct1, false);
-                }
-
-                //actions and state of the second Footman if there are two Footmen
-                for (Direction direction2 : Direction.values()) {
-                    Map<Integer, Action> actionsBothArchers = new HashMap<Integer, Action>();
-                    Action archerAct2 = footmanAct(direction2, secondArcherID, secondArcherView, player0Units);
-
-                    if (archerAct2 != null) {
-                        GameState childStateBothFootman = new GameState(childState1, archerAct2, true);
-                        actionsBothArchers.put(firstArcherID, archerAct1);
-                        actionsBothArchers.put(secondArcherID, archerAct2);
-                        childNodes.add(new GameStateChild(actionsBothArchers, childStateBothFootman));
-                    }
-                }    
+    /**
+     * @return the actions of a move by unit ID, as SEPIA expects them
+     */
+    public Map<Integer, Action> toActionMap(int move) {
+        Map<Integer, Action> actions = new HashMap<Integer, Action>();
+        for (int k = 0; k < actionCount(move); k++) {
+            int action = action(move, k);
+            int unitID = board.ids[actionUnit(action)];
+            if (isAttack(action)) {
+                actions.put(unitID, Action.createPrimitiveAttack(unitID, board.ids[actionTarget(action)]));
+            } else {
+                actions.put(unitID, Action.createPrimitiveMove(unitID, DIRECTIONS[actionDirection(action)]));
             }
         }
-        return childNodes;
+        return actions;
     }
 
-    public Action archerAct(Direction direction, int archerID, Unit.UnitView archerView, List<SimUnit> player0Units) {
-        int dirX = direction.xComponent();
-        int dirY = direction.yComponent();
-        int newarcherX = archerView.getXPosition() + dirX;
-        int newarcherY = archerView.getYPosition() + dirY;
-        int firstFootmanID = player0Units.get(0).ID;
-        Unit.UnitView firstFootmanView = state.getUnit(firstFootmanID);
-        int secondFootmanID = -1;
-        Unit.UnitView secondFootmanView = null;
-        //get IDs and UnitView of the second Footman
-        if (player0Units.size() == 2) {
-            secondFootmanID = player0Units.get(1).ID;
-            secondFootmanView = state.getUnit(secondFootmanID);
+    // the action of a move with a SEPIA Action's unit, type, direction and target
+    private int toCode(Action action) {
+        int unit = slotOf(action.getUnitId());
+        if (action.getType().equals(ActionType.PRIMITIVEATTACK)) {
+            return unit | ATTACK | slotOf(((TargetedAction)action).getTargetId()) << 8;
         }
-        if ((dirX == 0 || dirY == 0) && (newarcherX >= 0 && newarcherX <= xMax && newarcherY >=0 && newarcherY <=yMax)
-                    && !resourcesLocation.contains(new MapLocation(newarcherX, newarcherY))) {
-            //if archer is within the range of the first Footman or both Footman, attack the first Footman
-            if(getDistance(firstFootmanView,archerView) <= archerView.getTemplateView().getRange()) {
-                return Action.createPrimitiveAttack(archerID, firstFootmanID);
-            }
+        return unit | ((DirectedAction)action).getDirection().ordinal() << 4;
+    }
 
-            //if archer is within the range of the second Footman, attack the second Footman
-            else if (getDistance(secondFootmanView,archerView) <= archerView.getTemplateView().getRange()) {
-                return Action.createPrimitiveAttack(archerID, secondFootmanID);
-            }
+    private int slotOf(int unitID) {
+        for (int slot = 0; slot < board.ids.length; slot++) {
+            if (board.ids[slot] == unitID) return slot;
+        }
+        throw new IllegalArgumentException("no unit with ID " + unitID);
+    }
 
-            //if archer is not within the range, move towards direction
-            else {
-                return Action.createPrimitiveMove(archerID, direction);
+    static int actionCount(int move) {
+        return move >>> MOVE_COUNT;
+    }
+
+    /**
+     * @return the k-th action of move
+     */
+    static int action(int move, int k) {
+        return move >>> (k * ACTION_BITS) & ACTION_MASK;
+    }
+
+    /**
+     * @return the slot of the unit making action
+     */
+    static int actionUnit(int action) {
+        return action & 0xF;
+    }
+
+    static boolean isAttack(int action) {
+        return (action & ATTACK) != 0;
+    }
+
+    /**
+     * @return the ordinal of the Direction a move action goes in
+     */
+    static int actionDirection(int action) {
+        return action >>> 4 & 0x7;
+    }
+
+    /**
+     * @return the slot of the unit an attack action targets
+     */
+    static int actionTarget(int action) {
+        return action >>> 8 & 0xF;
+    }
+
+    /**
+     * @return the action of the archer in the given slot for a direction, or NO_ACTION if it
+     * cannot move that way
+     */
+    private int archerAct(int direction, int archer) {
+        int dirX = DIRECTIONS[direction].xComponent();
+        int dirY = DIRECTIONS[direction].yComponent();
+        long unit = units[archer];
+        if ((dirX == 0 || dirY == 0) && canEnter(x(unit) + dirX, y(unit) + dirY)) {
+            //if archer is within the range of a Footman, attack the first one in range
+            int range = board.ranges[archer];
+            for (int footman = 0; footman < board.footmen; footman++) {
+                if (isAlive(footman) && squaredDistance(footman, archer) <= range * range) {
+                    return archer | ATTACK | footman << 8;
+                }
             }
+            //if archer is not within the range, move towards direction
+            return archer | direction << 4;
         }
-        return null;
-    }
-
-    public Action footmanAct(Direction direction, int footmanID, Unit.UnitView footmanView, List<SimUnit> player1Units) {
-        int dirX = direction.xComponent();
-        int dirY = direction.yComponent();
-        int newfootmen1X = footmanView.getXPosition() + dirX;
-        int newfootmen1Y = footmanView.getYPosition() + dirY;
-        int archerID1 = player1Units.get(0).ID;
-        Unit.UnitView archerView1 = state.getUnit(archerID1);
-        int archerID2 = -1;
-        Unit.UnitView archerView2 = null;
-        if (player1Units.size() == 2) {
-            archerID2 = player1Units.get(1).ID;
-            archerView2 = state.getUnit(archerID2);
-        }
+        return NO_ACTION;
+    }
 
-        //Only consider Footmen move if it's not diagonal, within the boundaries of the map, and dont collide to any obstacles
-        if ((dirX == 0 || dirY == 0) && (newfootmen1X >= 0 && newfootmen1X <= xMax && newfootmen1Y >=0 && newfootmen1Y <=yMax)
-            && !resourcesLocation.contains(new MapLocation(newfootmen1X, newfootmen1Y))) {
-            //if adjacent to the first Archer or both Archers, attack the first Archer
-            if (isAdjacentTo(footmanView.getXPosition(), footmanView.getYPosition(), archerView1)) {
-                return Action.createPrimitiveAttack(footmanID, archerID1);
-            }
-            //if adjacent to the second Archer, attack it
-            else if (isAdjacentTo(footmanView.getXPosition(), footmanView.getYPosition(), archerView2)) {
-                return Action.createPrimitiveAttack(footmanID, archerID2);
+    /**
+     * @return the action of the footman in the given slot for a direction, or NO_ACTION if it
+     * cannot move that way
+     */
+    private int footmanAct(int direction, int footman) {
+        int dirX = DIRECTIONS[direction].xComponent();
+        int dirY = DIRECTIONS[direction].yComponent();
+        long unit = units[footman];
+
+        //Only consider Footmen move if it's not diagonal, within the boundaries of the map, and dont collide to any obstacles or units
+        if ((dirX == 0 || dirY == 0) && canEnter(x(unit) + dirX, y(unit) + dirY)) {
+            //if adjacent to an Archer, attack the first one
+            for (int archer = board.footmen; archer < units.length; archer++) {
+                if (isAlive(archer) && isAdjacentTo(footman, archer)) {
+                    return footman | ATTACK | archer << 8;
+                }
             }
             //else it will move towards an Archer
-            else {
-                return Action.createPrimitiveMove(footmanID, direction);
-            }
+            return footman | direction << 4;
+        }
+        return NO_ACTION;
+    }
+
+    //check if (x, y) is on the map and free of obstacles and living units
+    private boolean canEnter(int x, int y) {
+        if (x < 0 || x >= board.xMax || y < 0 || y >= board.yMax || board.isObstacle(x, y)) return false;
+        for (int slot = 0; slot < units.length; slot++) {
+            if (isAlive(slot) && x(units[slot]) == x && y(units[slot]) == y) return false;
         }
-        return null;
+        return true;
     }
 
-    //get distance between 2 units
-    public double getDistance(Unit.UnitView unit1, Unit.UnitView unit2) {
-        double distance = 0;
-        double disXsquared = Math.pow(unit2.getXPosition() - unit1.getXPosition(), 2);
-        double disYsquared = Math.pow(unit2.getYPosition() - unit1.getYPosition(), 2);
-        distance = Math.pow((disXsquared + disYsquared), 1/2);
-        return distance;
+    //squared straight-line distance between the units in 2 slots
+    private int squaredDistance(int slot1, int slot2) {
+        int dx = x(units[slot2]) - x(units[slot1]);
+        int dy = y(units[slot2]) - y(units[slot1]);
+        return dx * dx + dy * dy;
     }
 
-    //check if 2 units 
-    public boolean isAdjacentTo(int footmenX, int footmenY, Unit.UnitView unit2) {
-        return Math.abs(footmenX - unit2.getXPosition()) <= 1 && Math.abs(footmenY - unit2.getYPosition()) <= 1;
+    //check if the units in 2 slots are next to each other, diagonals included
+    private boolean isAdjacentTo(int slot1, int slot2) {
+        return Math.abs(x(units[slot1]) - x(units[slot2])) <= 1 && Math.abs(y(units[slot1]) - y(units[slot2])) <= 1;
     }
 }
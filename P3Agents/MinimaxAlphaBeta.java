@@ -13,7 +13,40 @@ import java.util.Map;
 
 public class MinimaxAlphaBeta extends Agent {
 
+    // transposition table slots when no size is given
+    private static final int DEFAULT_TABLE_ENTRIES = 1 << 18;
+
+    // a node checks the clock once every this many nodes
+    private static final int CLOCK_CHECK_INTERVAL = 64;
+
+    // thrown through the search when the turn budget runs out; it carries no stack trace
+    private static final class SearchTimeout extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SearchTimeout() {
+            super(null, null, false, false);
+        }
+    }
+    private static final SearchTimeout TIMEOUT = new SearchTimeout();
+
+    // the deepest search, in plys
     private final int numPlys;
+    // positions already searched, kept across turns; null if disabled
+    private final TranspositionTable table;
+    // per-turn search budget in nanoseconds, or 0 to always search numPlys deep
+    private final long turnBudgetNanos;
+    // when the current iteration must stop, and the nodes visited since the clock was last read
+    private long deadline = Long.MAX_VALUE;
+    private int nodesSinceClockCheck;
+    // killer moves and history table
+    private final MoveOrdering ordering;
+    // depth of the current iteration, from which a node's distance from the root follows
+    private int iterationDepth;
+    // the root move searched first, the best of the last iteration
+    private int rootFirst = GameState.NO_MOVE;
+    // depth reached on each turn, summed, and the number of turns
+    private long totalDepth;
+    private int turns;
     private static final Comparator<GameStateChild> COMPARATOR = (o1, o2) -> {
         if(o1.state.getUtility() > o2.state.getUtility()){
             return -1;
@@ -35,6 +68,12 @@ public class MinimaxAlphaBeta extends Agent {
         }
 
         numPlys = Integer.parseInt(args[0]);
+        // args[1] is the number of transposition table slots, or 0 to search without one
+        int tableEntries = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TABLE_ENTRIES;
+        table = tableEntries > 0 ? new TranspositionTable(tableEntries) : null;
+        // args[2] is the search time per turn in milliseconds, or 0 to always search numPlys deep
+        turnBudgetNanos = args.length > 2 ? Integer.parseInt(args[2]) * 1000000L : 0;
+        ordering = new MoveOrdering(2 * numPlys);
     }
 
     @Override
@@ -44,17 +83,41 @@ public class MinimaxAlphaBeta extends Agent {
 
     @Override
     public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
-        GameStateChild bestChild = alphaBetaSearch(new GameStateChild(newstate),
-                numPlys,
-                Double.NEGATIVE_INFINITY,
-                Double.POSITIVE_INFINITY);
+        long turnDeadline = turnBudgetNanos > 0 ? System.nanoTime() + turnBudgetNanos : Long.MAX_VALUE;
+        GameStateChild root = new GameStateChild(newstate);
+
+        // iterative deepening: each iteration searches the best move of the one before first, and
+        // the move played is the one of the deepest iteration that finished within the budget
+        GameStateChild bestChild = null;
+        int depth = 0;
+        rootFirst = GameState.NO_MOVE;
+        ordering.newTurn();
+        while (depth < numPlys) {
+            // the first iteration always runs to the end, so there is a move to play
+            deadline = depth == 0 ? Long.MAX_VALUE : turnDeadline;
+            try {
+                bestChild = alphaBetaSearch(root, depth + 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            } catch (SearchTimeout e) {
+                break;
+            }
+            depth++;
+            if (System.nanoTime() >= turnDeadline) break;
+        }
+        totalDepth += depth;
+        turns++;
 
         return bestChild.action;
     }
 
     @Override
     public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
-
+        if (turns > 0) {
+            System.out.printf("Average search depth: %.2f plys%n", (double) totalDepth / turns);
+        }
+        if (table != null) {
+            System.out.printf("Transposition table hit rate: %.1f%% (%d of %d probes)%n",
+                    100 * table.hitRate(), table.getHits(), table.getProbes());
+        }
     }
 
     @Override
@@ -85,65 +148,155 @@ public class MinimaxAlphaBeta extends Agent {
     public GameStateChild alphaBetaSearch(GameStateChild node, int depth, double alpha, double beta)
     {
         if(depth == 0 || node.state.isTerminated() == true) return node;
+        // the moves are made and taken back on node's state, which is left as it was unless the
+        // search times out
+        GameState state = node.state;
         double currentAlpha = alpha, currentBeta = beta;
-        List<GameStateChild> orderedChildren = orderChildrenWithHeuristics(node.state.getChildren());
-        GameStateChild bestMove = orderedChildren.get(0);
+        iterationDepth = depth;
+        int[] moves = state.getMoves();
+        if(moves.length == 0) return node;
+        int first = rootFirst;
+        TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        if(first == GameState.NO_MOVE && table != null && table.find(state.getZobristKey(), entry)) {
+            first = entry.bestMove;
+        }
+        MoveOrdering.Picker picker = ordering.picker(state, moves, 0, true, first);
+        int bestMove = GameState.NO_MOVE;
         double maxUlt = Double.NEGATIVE_INFINITY;
-        for (GameStateChild current: orderedChildren){
-            double backedUpValue = alphaBetaSearchMin(current, depth, currentAlpha, currentBeta);
-            if(backedUpValue>maxUlt){
-                bestMove = current;
+        for (int k = 0; picker.hasNext(); k++){
+            int move = picker.nextInt();
+            state.applyMove(move);
+            double backedUpValue = alphaBetaSearchMin(state, depth, currentAlpha, currentBeta);
+            state.undoMove();
+            if(k == 0 || backedUpValue>maxUlt){
+                bestMove = move;
                 maxUlt = backedUpValue;
+                currentAlpha = Math.max(currentAlpha, backedUpValue);
             }
         }
-        return bestMove;
+        rootFirst = bestMove;
+        store(state, depth, maxUlt, alpha, beta, bestMove);
+        GameState bestState = state.copy();
+        bestState.applyMove(bestMove);
+        return new GameStateChild(state.toActionMap(bestMove), bestState);
     }
     /**
      * This function will perform an alphaBetaSearch at the max node and return the backed up utility of the node
-     * @param node The action and state to search from
+     * @param state The state to search from; moves are made on it and taken back
      * @param depth The remaining number of plys under this node
      * @param alpha The current best value for the maximizing node from this node to the root
      * @param beta The current best value for the minimizing node from this node to the root
      * @return The backed up utility of the node
      */
-    public double alphaBetaSearchMax(GameStateChild node, int depth, double alpha, double beta){
-        if(depth == 0 || node.state.isTerminated() == true) return node.state.getUtility();
+    public double alphaBetaSearchMax(GameState state, int depth, double alpha, double beta){
+        if(depth == 0 || state.isTerminated() == true) return state.getUtility();
+        checkClock();
         double currentAlpha = alpha, currentBeta = beta;
+        // a position searched at least as deep may already decide this node or narrow its window
+        TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        boolean found = table != null && table.find(state.getZobristKey(), entry);
+        if(found && entry.depth >= depth){
+            if(entry.bound == TranspositionTable.EXACT) return entry.value;
+            if(entry.bound == TranspositionTable.LOWER) currentAlpha = Math.max(currentAlpha, entry.value);
+            else currentBeta = Math.min(currentBeta, entry.value);
+            if(currentAlpha >= currentBeta) return entry.value;
+        }
+        double windowAlpha = currentAlpha, windowBeta = currentBeta;
+        int[] moves = state.getMoves();
+        if(moves.length == 0) return state.getUtility();
+        int ply = 2 * (iterationDepth - depth);
+        MoveOrdering.Picker picker = ordering.picker(state, moves, ply, true, found ? entry.bestMove : GameState.NO_MOVE);
         double maxUlt = Double.NEGATIVE_INFINITY;
-        List<GameStateChild> orderedChildren = orderChildrenWithHeuristics(node.state.getChildren());
-        for (GameStateChild current: orderedChildren){
-            double backedUpValue = alphaBetaSearchMin(current, depth, currentAlpha, currentBeta);
-            if(backedUpValue>currentBeta)break;
+        int bestMove = GameState.NO_MOVE;
+        while (picker.hasNext()){
+            int move = picker.nextInt();
+            state.applyMove(move);
+            double backedUpValue = alphaBetaSearchMin(state, depth, currentAlpha, currentBeta);
+            state.undoMove();
             if(backedUpValue>maxUlt){
-                currentAlpha = backedUpValue;
                 maxUlt = backedUpValue;
+                bestMove = move;
+                currentAlpha = Math.max(currentAlpha, backedUpValue);
+            }
+            if(currentAlpha>=currentBeta){
+                ordering.cutoff(move, ply, depth);
+                break;
             }
         }
+        store(state, depth, maxUlt, windowAlpha, windowBeta, bestMove);
         return maxUlt;
     }
     /**
      * This function will perform an alphaBetaSearch at the min node and return the backed up utility of the node
-     * @param node The action and state to search from
+     * @param state The state to search from; moves are made on it and taken back
      * @param depth The remaining number of plys under this node
      * @param alpha The current best value for the maximizing node from this node to the root
      * @param beta The current best value for the minimizing node from this node to the root
      * @return The backed up utility of the node
      */
-    public double alphaBetaSearchMin(GameStateChild node, int depth, double alpha, double beta){
-        if(depth == 0 || node.state.isTerminated() == true) return node.state.getUtility();
+    public double alphaBetaSearchMin(GameState state, int depth, double alpha, double beta){
+        if(depth == 0 || state.isTerminated() == true) return state.getUtility();
+        checkClock();
         double currentAlpha = alpha, currentBeta = beta;
+        TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        boolean found = table != null && table.find(state.getZobristKey(), entry);
+        if(found && entry.depth >= depth){
+            if(entry.bound == TranspositionTable.EXACT) return entry.value;
+            if(entry.bound == TranspositionTable.LOWER) currentAlpha = Math.max(currentAlpha, entry.value);
+            else currentBeta = Math.min(currentBeta, entry.value);
+            if(currentAlpha >= currentBeta) return entry.value;
+        }
+        double windowAlpha = currentAlpha, windowBeta = currentBeta;
+        int[] moves = state.getMoves();
+        if(moves.length == 0) return state.getUtility();
+        int ply = 2 * (iterationDepth - depth) + 1;
+        MoveOrdering.Picker picker = ordering.picker(state, moves, ply, false, found ? entry.bestMove : GameState.NO_MOVE);
         double minUlt = Double.POSITIVE_INFINITY;
-        List<GameStateChild> orderedChildren = orderChildrenWithHeuristics(node.state.getChildren());
-        for (GameStateChild current: orderedChildren){
-            double backedUpValue = alphaBetaSearchMax(current, depth-1, currentAlpha, currentBeta);
-            if(backedUpValue<currentAlpha)break;
+        int bestMove = GameState.NO_MOVE;
+        while (picker.hasNext()){
+            int move = picker.nextInt();
+            state.applyMove(move);
+            double backedUpValue = alphaBetaSearchMax(state, depth-1, currentAlpha, currentBeta);
+            state.undoMove();
             if(backedUpValue<minUlt){
-                currentBeta = backedUpValue;
                 minUlt = backedUpValue;
+                bestMove = move;
+                currentBeta = Math.min(currentBeta, backedUpValue);
+            }
+            if(currentAlpha>=currentBeta){
+                ordering.cutoff(move, ply, depth);
+                break;
             }
         }
+        store(state, depth, minUlt, windowAlpha, windowBeta, bestMove);
         return minUlt;
     }
+
+    /**
+     * Aborts the iteration by throwing TIMEOUT once the deadline has passed. The clock is only
+     * read every CLOCK_CHECK_INTERVAL nodes. Nothing is stored for the nodes being unwound, so
+     * the transposition table only ever holds finished searches.
+     */
+    private void checkClock()
+    {
+        if(++nodesSinceClockCheck < CLOCK_CHECK_INTERVAL) return;
+        nodesSinceClockCheck = 0;
+        if(System.nanoTime() >= deadline) throw TIMEOUT;
+    }
+
+    /**
+     * Records a searched node in the transposition table. A value outside the window it was
+     * searched with is only a bound: at or below alpha the node failed low and its value is at
+     * most the one found, at or above beta it failed high and its value is at least that.
+     */
+    private void store(GameState state, int depth, double value, double alpha, double beta, int bestMove)
+    {
+        if(table == null) return;
+        byte bound = TranspositionTable.EXACT;
+        if(value <= alpha) bound = TranspositionTable.UPPER;
+        else if(value >= beta) bound = TranspositionTable.LOWER;
+        table.store(state.getZobristKey(), depth, value, bound, bestMove);
+    }
     /**
      * You will implement this.
      *
@@ -154,11 +307,16 @@ public class MinimaxAlphaBeta extends Agent {
      *
      * Include a good comment about what your heuristics are and why you chose them.
      *
+     * The search does not call this: it orders moves without building children, with the table
+     * move, attacks, killer moves and the history table in MoveOrdering. This only sorts the
+     * children by utility, highest first.
+     *
      * @param children
      * @return The list of children sorted by your heuristic.
      */
     public List<GameStateChild> orderChildrenWithHeuristics(List<GameStateChild> children)
     {
-        return children.sort(COMPARATOR);
+        children.sort(COMPARATOR);
+        return children;
     }
 }
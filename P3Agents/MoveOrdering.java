@@ -0,0 +1,237 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Orders the moves of a node for the alpha-beta search, best for the side to move first. The
+ * best move of an earlier search of the node, from the transposition table, comes before all
+ * of these:
+ *
+ * 1. Moves with an attack, by the utility of the state they lead to. Attacks change the health
+ *    term of the utility, so its value tells them apart well.
+ * 2. The killer moves of the node's ply: the last two moves without an attack that caused a
+ *    cutoff at that ply, since a move that refuted one position often refutes its siblings.
+ * 3. The other moves, by their history score and then by utility. The history table scores
+ *    each (unit, action type, direction) by the cutoffs it caused anywhere in the tree, deeper
+ *    searches counting for more, which ranks moves whose utilities barely differ.
+ *
+ * The moves are handed out one at a time by a Picker, which only scores a group when the
+ * search gets to it: a cutoff on the table's move or an attack leaves the later moves unscored.
+ * Each scored move is made and taken back once to find its utility, instead of once per
+ * comparison.
+ */
+final class MoveOrdering {
+
+    // history slots per unit: the eight directions it can move in, then attacking
+    private static final int ACTION_CODES = 9;
+    private static final int ATTACK = 8;
+    // one history row per unit slot of GameState; a unit's slot only changes on the turn after
+    // another unit dies
+    private static final int HISTORY_UNITS = 16;
+    private static final int KILLERS_PER_PLY = 2;
+
+    // the groups a Picker hands out moves from, in order
+    private static final int TABLE_MOVE = 0;
+    private static final int ATTACKS = 1;
+    private static final int KILLERS = 2;
+    private static final int QUIET = 3;
+    private static final int DONE = 4;
+
+    private final long[] history = new long[HISTORY_UNITS * ACTION_CODES];
+    // KILLERS_PER_PLY moves per ply from the root, most recent first
+    private final int[] killers;
+
+    /**
+     * @param plys the most plys from the root the search reaches; a max and a min node each count as one
+     */
+    MoveOrdering(int plys) {
+        killers = new int[plys * KILLERS_PER_PLY];
+    }
+
+    /**
+     * Forgets the killers, which belong to the positions of the last turn, and halves the
+     * history, so it follows the current position rather than the whole game.
+     */
+    void newTurn() {
+        Arrays.fill(killers, GameState.NO_MOVE);
+        for (int i = 0; i < history.length; i++) history[i] >>= 1;
+    }
+
+    /**
+     * @param state the node; scored moves are made on it and taken back, so it must be as it
+     *              was whenever the picker is used
+     * @param moves the node's moves from GameState.getMoves
+     * @param ply distance of the node from the root
+     * @param maximizing true at a max node, whose side wants the highest utility
+     * @param first the node's best move from the transposition table, or GameState.NO_MOVE
+     * @return the moves in the order to search them
+     */
+    Picker picker(GameState state, int[] moves, int ply, boolean maximizing, int first) {
+        return new Picker(state, moves, ply, maximizing, first);
+    }
+
+    /**
+     * Records that move caused a cutoff at a node ply plys from the root with depth plys left
+     * under it. Attacks are already searched first, so only the other moves are recorded.
+     */
+    void cutoff(int move, int ply, int depth) {
+        if (hasAttack(move)) return;
+        for (int k = 0; k < GameState.actionCount(move); k++) {
+            history[historySlot(GameState.action(move, k))] += (long) depth * depth;
+        }
+        int base = ply * KILLERS_PER_PLY;
+        if (base >= killers.length || killers[base] == move) return;
+        System.arraycopy(killers, base, killers, base + 1, KILLERS_PER_PLY - 1);
+        killers[base] = move;
+    }
+
+    private long historyOf(int move) {
+        long score = 0;
+        for (int k = 0; k < GameState.actionCount(move); k++) {
+            score += history[historySlot(GameState.action(move, k))];
+        }
+        return score;
+    }
+
+    private static boolean hasAttack(int move) {
+        for (int k = 0; k < GameState.actionCount(move); k++) {
+            if (GameState.isAttack(GameState.action(move, k))) return true;
+        }
+        return false;
+    }
+
+    private static int historySlot(int action) {
+        int code = GameState.isAttack(action) ? ATTACK : GameState.actionDirection(action);
+        return GameState.actionUnit(action) * ACTION_CODES + code;
+    }
+
+    /**
+     * Hands out the moves of one node in order, a group at a time. Within the attacks and the
+     * quiet moves, each next move is picked from the rest of its group, ties going to the one
+     * generated first.
+     */
+    final class Picker implements PrimitiveIterator.OfInt {
+        private final GameState state;
+        private final int[] moves;
+        private final int ply;
+        private final boolean maximizing;
+        private final int first;
+        // moves already handed out, by index
+        private final boolean[] taken;
+        private int group = TABLE_MOVE;
+        // the moves of the current group, by index, with their scores; the count is -1 until
+        // they are scored
+        private final int[] candidates;
+        private final double[] scores;
+        private final long[] histories;
+        private int candidateCount;
+        private int killer;
+        // index of the move found by hasNext, or -1
+        private int pending = -1;
+
+        private Picker(GameState state, int[] moves, int ply, boolean maximizing, int first) {
+            this.state = state;
+            this.moves = moves;
+            this.ply = ply;
+            this.maximizing = maximizing;
+            this.first = first;
+            taken = new boolean[moves.length];
+            candidates = new int[moves.length];
+            scores = new double[moves.length];
+            histories = new long[moves.length];
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending < 0 && group != DONE) pending = advance();
+            return pending >= 0;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int move = moves[pending];
+            taken[pending] = true;
+            pending = -1;
+            return move;
+        }
+
+        /**
+         * @return the index of the next move of the current group, or -1 if the group is
+         * finished, in which case the next group is started
+         */
+        private int advance() {
+            switch (group) {
+                case TABLE_MOVE:
+                    group = ATTACKS;
+                    candidateCount = -1;
+                    return indexOf(first);
+                case ATTACKS:
+                    if (candidateCount < 0) collect(true);
+                    int attack = select(false);
+                    if (attack >= 0) return attack;
+                    group = KILLERS;
+                    return -1;
+                case KILLERS:
+                    while (killer < KILLERS_PER_PLY) {
+                        int base = ply * KILLERS_PER_PLY;
+                        int index = base < killers.length ? indexOf(killers[base + killer]) : -1;
+                        killer++;
+                        if (index >= 0 && !hasAttack(moves[index])) return index;
+                    }
+                    group = QUIET;
+                    collect(false);
+                    return -1;
+                default:
+                    int quiet = select(true);
+                    if (quiet >= 0) return quiet;
+                    group = DONE;
+                    return -1;
+            }
+        }
+
+        /**
+         * Scores the moves not handed out yet that have an attack, or that do not.
+         */
+        private void collect(boolean attacks) {
+            candidateCount = 0;
+            for (int i = 0; i < moves.length; i++) {
+                if (taken[i] || hasAttack(moves[i]) != attacks) continue;
+                state.applyMove(moves[i]);
+                double utility = state.getUtility();
+                state.undoMove();
+                candidates[candidateCount] = i;
+                scores[candidateCount] = maximizing ? utility : -utility;
+                histories[candidateCount] = attacks ? 0 : historyOf(moves[i]);
+                candidateCount++;
+            }
+        }
+
+        /**
+         * @param byHistory true to rank by history before utility
+         * @return the index of the best candidate not handed out yet, or -1 if there is none
+         */
+        private int select(boolean byHistory) {
+            int best = -1;
+            for (int c = 0; c < candidateCount; c++) {
+                if (taken[candidates[c]]) continue;
+                if (best < 0 || (byHistory && histories[c] != histories[best] ? histories[c] > histories[best] : scores[c] > scores[best])) {
+                    best = c;
+                }
+            }
+            return best < 0 ? -1 : candidates[best];
+        }
+
+        // the index of move among those not handed out yet, or -1; getMoves never repeats a
+        // move, so the table move or a killer only ever has one index to take
+        private int indexOf(int move) {
+            if (move == GameState.NO_MOVE) return -1;
+            for (int i = 0; i < moves.length; i++) {
+                if (moves[i] == move && !taken[i]) return i;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * The number of footman steps between every pair of cells around the trees, from one BFS per
+ * cell. Footmen only move in the four straight directions, so a step is one of those; units are
+ * not obstacles here, since they move during the search.
+ *
+ * The trees do not change during an episode, so the table for a map is built the first time a
+ * GameState sees it and kept for the following turns. It is read-only once built and shared by
+ * every state.
+ */
+final class PathDistances {
+
+    static final int UNREACHABLE = -1;
+    // an all-pairs table of shorts for more cells than this would take over 32 MB
+    private static final int MAX_CELLS = 4096;
+
+    private static final int[] DX = {1, -1, 0, 0};
+    private static final int[] DY = {0, 0, 1, -1};
+
+    // the table of the last map seen
+    private static PathDistances last;
+
+    final int xMax;
+    final int yMax;
+    private final long[] obstacles;
+    // the steps from cell a to cell b at a * cells + b, or UNREACHABLE
+    private final short[] steps;
+
+    private PathDistances(int xMax, int yMax, long[] obstacles) {
+        this.xMax = xMax;
+        this.yMax = yMax;
+        this.obstacles = obstacles;
+        int cells = xMax * yMax;
+        steps = new short[cells * cells];
+        Arrays.fill(steps, (short) UNREACHABLE);
+        int[] queue = new int[cells];
+        for (int source = 0; source < cells; source++) {
+            if (isObstacle(source)) continue;
+            int row = source * cells;
+            steps[row + source] = 0;
+            int head = 0, tail = 0;
+            queue[tail++] = source;
+            while (head < tail) {
+                int current = queue[head++];
+                int cx = current % xMax, cy = current / xMax;
+                for (int d = 0; d < DX.length; d++) {
+                    int nx = cx + DX[d], ny = cy + DY[d];
+                    if (nx < 0 || nx >= xMax || ny < 0 || ny >= yMax) continue;
+                    int next = ny * xMax + nx;
+                    if (steps[row + next] != UNREACHABLE || isObstacle(next)) continue;
+                    steps[row + next] = (short) (steps[row + current] + 1);
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param obstacles the obstacle cells, as bit y * xMax + x
+     * @return the distances for the map, or null if it is too large for an all-pairs table
+     */
+    static PathDistances of(int xMax, int yMax, long[] obstacles) {
+        if (xMax * yMax > MAX_CELLS) return null;
+        PathDistances distances = last;
+        if (distances != null && distances.xMax == xMax && distances.yMax == yMax
+                && Arrays.equals(distances.obstacles, obstacles)) {
+            return distances;
+        }
+        distances = new PathDistances(xMax, yMax, obstacles.clone());
+        last = distances;
+        return distances;
+    }
+
+    /**
+     * @return the number of steps from (x1, y1) to (x2, y2), or UNREACHABLE if the trees wall
+     * one off from the other
+     */
+    int steps(int x1, int y1, int x2, int y2) {
+        return steps[(y1 * xMax + x1) * (xMax * yMax) + y2 * xMax + x2];
+    }
+
+    private boolean isObstacle(int cell) {
+        return (obstacles[cell >> 6] & 1L << cell) != 0;
+    }
+}
@@ -0,0 +1,94 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Fixed-size transposition table for the alpha-beta search, indexed by the low bits of a
+ * position's Zobrist key. Each slot holds one position: the depth it was searched to, its
+ * backed up value and whether that value is exact or only a bound, and its best move, so that
+ * move can be searched first next time.
+ *
+ * A new position always replaces a different one in its slot; the same position only replaces
+ * itself with a search at least as deep. The table is kept across turns, since the positions
+ * searched on one turn come up again on the next.
+ */
+final class TranspositionTable {
+
+    static final byte EXACT = 0;
+    // the value is at least the stored value (the search failed high)
+    static final byte LOWER = 1;
+    // the value is at most the stored value (the search failed low)
+    static final byte UPPER = 2;
+
+    /**
+     * A slot's contents, copied out by find.
+     */
+    static final class Entry {
+        int depth;
+        double value;
+        byte bound;
+        // a move from GameState.getMoves, or GameState.NO_MOVE
+        int bestMove;
+    }
+
+    private final long[] keys;
+    private final double[] values;
+    // (depth + 1) << 40 | bound << 32 | best move; 0 marks an empty slot
+    private final long[] infos;
+    private final int mask;
+
+    private long probes;
+    private long hits;
+
+    /**
+     * @param entries number of slots, rounded up to a power of two
+     */
+    TranspositionTable(int entries) {
+        int size = 1;
+        while (size < entries) size <<= 1;
+        keys = new long[size];
+        values = new double[size];
+        infos = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Copies the slot holding key into entry.
+     *
+     * @return false if key is not in the table
+     */
+    boolean find(long key, Entry entry) {
+        probes++;
+        int slot = (int) key & mask;
+        long info = infos[slot];
+        if (info == 0 || keys[slot] != key) return false;
+        hits++;
+        entry.depth = (int) (info >>> 40) - 1;
+        entry.value = values[slot];
+        entry.bound = (byte) (info >>> 32);
+        entry.bestMove = (int) info;
+        return true;
+    }
+
+    void store(long key, int depth, double value, byte bound, int bestMove) {
+        int slot = (int) key & mask;
+        long oldInfo = infos[slot];
+        if (oldInfo != 0 && keys[slot] == key && (int) (oldInfo >>> 40) - 1 > depth) return;
+        keys[slot] = key;
+        values[slot] = value;
+        infos[slot] = (long) (depth + 1) << 40 | (long) (bound & 0xFF) << 32 | (bestMove & 0xFFFFFFFFL);
+    }
+
+    long getProbes() {
+        return probes;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the fraction of probes that found their position
+     */
+    double hitRate() {
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+}
@@ -0,0 +1,39 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Zobrist keys for GameState. A position's key is the XOR of one random key per unit for its
+ * position, one per unit for its HP and one for the side to move, so applying an action only
+ * XORs out the keys of the units it changes and XORs in their new ones.
+ *
+ * The random keys are not kept in tables: each is a 64-bit mix of the feature it stands for,
+ * so they are the same on every turn without knowing the map size or the unit IDs in advance,
+ * and transpositions stored on one turn are still found on the next.
+ */
+final class Zobrist {
+
+    // XORed in when it is the archers' turn
+    static final long ARCHERS_TO_MOVE = mix(0x5851F42D4C957F2DL);
+
+    private static final long POSITION = 0x9E3779B97F4A7C15L;
+    private static final long HEALTH = 0xC2B2AE3D27D4EB4FL;
+
+    private Zobrist() {
+    }
+
+    /**
+     * @return the key of a unit at (x, y) with hp health, or 0 if it is dead
+     */
+    static long unit(int id, int x, int y, int hp) {
+        if (hp <= 0) return 0;
+        long position = ((long) id << 32) | ((long) (x & 0xFFFF) << 16) | (y & 0xFFFF);
+        long health = ((long) id << 32) | (hp & 0xFFFFFFFFL);
+        return mix(position ^ POSITION) ^ mix(health ^ HEALTH);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}